@@ -3,17 +3,19 @@ package org.pathvisio.go;
 import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.Frame;
+import java.io.File;
 
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTree;
-import javax.swing.tree.TreeModel;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
 
 import org.pathvisio.gui.dialogs.OkCancelDialog;
 
 public class BrowseDialog extends OkCancelDialog
 {
-	private TreeModel model;
+	private GoTreeModel model;
 	private JTree tree;
 	
 	public BrowseDialog(Frame frame, GoReader reader)
@@ -24,11 +26,47 @@ public class BrowseDialog extends OkCancelDialog
 		pack();
 	}
 	
+	/**
+	 * Show the dialog straight away, while the ontology is loaded in the background.
+	 * Terms are filled in as they are loaded, see {@link GoTreeModel#GoTreeModel(File)}.
+	 */
+	public BrowseDialog(Frame frame, File obo)
+	{
+		super(frame, "Browse the Gene Ontology", frame, false);
+		model = new GoTreeModel(obo);
+		setDialogComponent(createDialogPane());
+		pack();
+	}
+	
+	@Override
+	public void dispose()
+	{
+		model.dispose();
+		super.dispose();
+	}
+	
 	protected Component createDialogPane()
 	{
 	    JPanel panel = new JPanel();
 	    panel.setLayout(new BorderLayout());
-	    tree = new JTree(model);
+	    tree = new JTree(model)
+	    {
+	    	@Override
+	    	public String convertValueToText(Object value, boolean selected, boolean expanded, 
+	    			boolean leaf, int row, boolean hasFocus)
+	    	{
+	    		// the names kept by the model, instead of GoTerm.toString()
+	    		return model.getLabel(value);
+	    	}
+	    };
+	    tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+	    	public void treeWillExpand(TreeExpansionEvent e)
+	    	{
+	    		model.loadChildren(e.getPath());
+	    	}
+	    	
+	    	public void treeWillCollapse(TreeExpansionEvent e) {}
+	    });
 	    panel.add(new JScrollPane(tree), BorderLayout.CENTER);
 	    
 	    //TODO add selection listener to tree
@@ -0,0 +1,302 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of gene numbers, as used in {@link GoAnnotations}, in one of two compact 
+ * forms: a sorted int array for small sets, or a bitmap with one bit per gene for large ones. 
+ * The form that takes the least memory is picked when the set is created.
+ * <p>
+ * Intersections, unions and overlap counts work directly on either form.
+ * To go through the genes without creating objects:
+ * <pre>
+ * for (int g = bitmap.next(0); g >= 0; g = bitmap.next(g + 1)) ...
+ * </pre>
+ */
+public final class GeneBitmap
+{
+	/** the empty set */
+	public static final GeneBitmap EMPTY = new GeneBitmap(new int[0], null, 0);
+	
+	/** sorted members, or null if this is stored as words */
+	private final int[] values;
+	/** one bit per gene, or null if this is stored as values */
+	private final long[] words;
+	private final int cardinality;
+	
+	private GeneBitmap(int[] values, long[] words, int cardinality)
+	{
+		this.values = values;
+		this.words = words;
+		this.cardinality = cardinality;
+	}
+	
+	/**
+	 * Create a set from a bitmap. The bits are copied.
+	 * @param words bit g of word g / 64 is set for each member g
+	 * @param length number of words to use
+	 */
+	static GeneBitmap fromWords(long[] words, int length)
+	{
+		int count = 0;
+		int last = -1;
+		for (int w = 0; w < length; ++w)
+		{
+			if (words[w] != 0)
+			{
+				count += Long.bitCount(words[w]);
+				last = w;
+			}
+		}
+		if (count == 0) return EMPTY;
+		// an int per member, or a long per 64 genes up to the last one
+		if (count <= (last + 1) * 2)
+		{
+			int[] values = new int[count];
+			int k = 0;
+			for (int w = 0; w <= last; ++w)
+			{
+				for (long bits = words[w]; bits != 0; bits &= bits - 1)
+				{
+					values[k++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+				}
+			}
+			return new GeneBitmap(values, null, count);
+		}
+		return new GeneBitmap(null, Arrays.copyOf(words, last + 1), count);
+	}
+	
+	/**
+	 * Create a set from sorted, distinct gene numbers. 
+	 */
+	public static GeneBitmap fromSorted(int[] sorted, int from, int to)
+	{
+		if (from == to) return EMPTY;
+		int count = to - from;
+		int length = (sorted[to - 1] >>> 6) + 1;
+		if (count <= length * 2) return new GeneBitmap(Arrays.copyOfRange(sorted, from, to), null, count);
+		long[] words = new long[length];
+		for (int i = from; i < to; ++i) words[sorted[i] >>> 6] |= 1L << sorted[i];
+		return new GeneBitmap(null, words, count);
+	}
+	
+	/** return the number of genes in the set */
+	public int cardinality()
+	{
+		return cardinality;
+	}
+	
+	public boolean isEmpty()
+	{
+		return cardinality == 0;
+	}
+	
+	public boolean contains(int gene)
+	{
+		if (gene < 0) return false;
+		if (values != null) return Arrays.binarySearch(values, gene) >= 0;
+		int w = gene >>> 6;
+		return w < words.length && (words[w] & (1L << gene)) != 0;
+	}
+	
+	/**
+	 * return the smallest member that is at least from, or -1 if there is none.
+	 */
+	public int next(int from)
+	{
+		if (from < 0) from = 0;
+		if (values != null)
+		{
+			int pos = Arrays.binarySearch(values, from);
+			if (pos < 0) pos = -pos - 1;
+			return pos < values.length ? values[pos] : -1;
+		}
+		int w = from >>> 6;
+		if (w >= words.length) return -1;
+		long bits = words[w] & (-1L << from);
+		while (bits == 0)
+		{
+			if (++w == words.length) return -1;
+			bits = words[w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(bits);
+	}
+	
+	/** return the members in increasing order */
+	public int[] toArray()
+	{
+		if (values != null) return values.clone();
+		int[] result = new int[cardinality];
+		int k = 0;
+		for (int g = next(0); g >= 0; g = next(g + 1)) result[k++] = g;
+		return result;
+	}
+	
+	/**
+	 * return the number of genes in both this and the other set, without creating the intersection.
+	 */
+	public int andCardinality(GeneBitmap other)
+	{
+		if (values != null && other.values != null) return intersect(values, other.values, null);
+		if (values != null) return countIn(values, other.words);
+		if (other.values != null) return countIn(other.values, words);
+		int count = 0;
+		for (int w = Math.min(words.length, other.words.length) - 1; w >= 0; --w)
+		{
+			count += Long.bitCount(words[w] & other.words[w]);
+		}
+		return count;
+	}
+	
+	/** return the genes in both this and the other set */
+	public GeneBitmap and(GeneBitmap other)
+	{
+		if (values != null && other.values != null)
+		{
+			int[] result = new int[Math.min(values.length, other.values.length)];
+			int count = intersect(values, other.values, result);
+			return fromSorted(result, 0, count);
+		}
+		if (values != null || other.values != null)
+		{
+			int[] small = values != null ? values : other.values;
+			long[] large = values != null ? other.words : words;
+			int[] result = new int[small.length];
+			int count = 0;
+			for (int g : small)
+			{
+				if (isSet(large, g)) result[count++] = g;
+			}
+			return fromSorted(result, 0, count);
+		}
+		long[] result = new long[Math.min(words.length, other.words.length)];
+		for (int w = 0; w < result.length; ++w) result[w] = words[w] & other.words[w];
+		return fromWords(result, result.length);
+	}
+	
+	/** return the genes in this set, the other set, or both */
+	public GeneBitmap or(GeneBitmap other)
+	{
+		if (other.cardinality == 0) return this;
+		if (cardinality == 0) return other;
+		int length = Math.max(wordLength(), other.wordLength());
+		long[] result = new long[length];
+		orInto(result);
+		other.orInto(result);
+		return fromWords(result, length);
+	}
+	
+	/** return the genes in this set that are not in the other set */
+	public GeneBitmap andNot(GeneBitmap other)
+	{
+		if (other.cardinality == 0 || cardinality == 0) return this;
+		long[] result = new long[wordLength()];
+		orInto(result);
+		if (other.values != null)
+		{
+			for (int g : other.values)
+			{
+				if ((g >>> 6) < result.length) result[g >>> 6] &= ~(1L << g);
+			}
+		}
+		else
+		{
+			for (int w = Math.min(result.length, other.words.length) - 1; w >= 0; --w) result[w] &= ~other.words[w];
+		}
+		return fromWords(result, result.length);
+	}
+	
+	/** number of words needed to hold this set as a bitmap */
+	int wordLength()
+	{
+		if (values != null) return values.length == 0 ? 0 : (values[values.length - 1] >>> 6) + 1;
+		return words.length;
+	}
+	
+	/** set the bits of the members of this set in the given bitmap, which must be long enough */
+	void orInto(long[] target)
+	{
+		if (values != null)
+		{
+			for (int g : values) target[g >>> 6] |= 1L << g;
+		}
+		else
+		{
+			for (int w = 0; w < words.length; ++w) target[w] |= words[w];
+		}
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (o == this) return true;
+		if (!(o instanceof GeneBitmap)) return false;
+		GeneBitmap other = (GeneBitmap)o;
+		return cardinality == other.cardinality && andCardinality(other) == cardinality;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		int result = cardinality;
+		for (int g = next(0); g >= 0; g = next(g + 1)) result = 31 * result + g;
+		return result;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return Arrays.toString(toArray());
+	}
+	
+	private static boolean isSet(long[] words, int g)
+	{
+		int w = g >>> 6;
+		return w < words.length && (words[w] & (1L << g)) != 0;
+	}
+	
+	private static int countIn(int[] values, long[] words)
+	{
+		int count = 0;
+		for (int g : values)
+		{
+			if (isSet(words, g)) count++;
+		}
+		return count;
+	}
+	
+	/** merge two sorted arrays, storing the common values in dest unless it is null */
+	private static int intersect(int[] a, int[] b, int[] dest)
+	{
+		int i = 0, j = 0, count = 0;
+		while (i < a.length && j < b.length)
+		{
+			if (a[i] < b[j]) i++;
+			else if (a[i] > b[j]) j++;
+			else
+			{
+				if (dest != null) dest[count] = a[i];
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+}
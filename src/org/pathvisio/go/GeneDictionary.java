@@ -0,0 +1,117 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.Arrays;
+
+/**
+ * Assigns consecutive int codes to gene ids, and looks them up again. 
+ * Uses open addressing on primitive arrays, and can look up a CharSequence
+ * without first turning it into a String.
+ */
+final class GeneDictionary
+{
+	private String[] values = new String[1024];
+	private int size = 0;
+	/** code + 1 of the value in each slot, 0 for an empty slot */
+	private int[] table = new int[2048];
+	
+	int size()
+	{
+		return size;
+	}
+	
+	String get(int code)
+	{
+		if (code >= size) throw new IndexOutOfBoundsException("" + code);
+		return values[code];
+	}
+	
+	/**
+	 * return the code of a gene id, or -1 if it is not in the dictionary.
+	 */
+	int indexOf(CharSequence id)
+	{
+		int hash = hash(id);
+		int mask = table.length - 1;
+		for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask)
+		{
+			String value = values[table[slot] - 1];
+			if (value.hashCode() == hash && equal(value, id)) return table[slot] - 1;
+		}
+		return -1;
+	}
+	
+	/**
+	 * return the code of a gene id, adding it to the dictionary if it is new.
+	 */
+	int add(CharSequence id)
+	{
+		int code = indexOf(id);
+		if (code >= 0) return code;
+		
+		if (size == values.length) values = Arrays.copyOf(values, size * 2);
+		values[size] = id.toString();
+		if ((size + 1) * 2 > table.length) rehash(table.length * 2);
+		insert(size);
+		return size++;
+	}
+	
+	/** copy of the values, indexed by code */
+	String[] toArray()
+	{
+		return Arrays.copyOf(values, size);
+	}
+	
+	private void insert(int code)
+	{
+		int mask = table.length - 1;
+		int slot = mix(values[code].hashCode()) & mask;
+		while (table[slot] != 0) slot = (slot + 1) & mask;
+		table[slot] = code + 1;
+	}
+	
+	private void rehash(int capacity)
+	{
+		table = new int[capacity];
+		for (int code = 0; code < size; ++code) insert(code);
+	}
+	
+	/** same as String.hashCode() */
+	private static int hash(CharSequence s)
+	{
+		if (s instanceof String) return s.hashCode();
+		int h = 0;
+		for (int i = 0; i < s.length(); ++i) h = 31 * h + s.charAt(i);
+		return h;
+	}
+	
+	private static int mix(int h)
+	{
+		return h ^ (h >>> 16);
+	}
+	
+	private static boolean equal(String a, CharSequence b)
+	{
+		if (a.length() != b.length()) return false;
+		for (int i = 0; i < a.length(); ++i)
+		{
+			if (a.charAt(i) != b.charAt(i)) return false;
+		}
+		return true;
+	}
+}
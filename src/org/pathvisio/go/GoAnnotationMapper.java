@@ -0,0 +1,344 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.bio.BioDataSource;
+
+/**
+ * IDMapper between GO terms and genes, and AttributeMapper for gene symbols, on a 
+ * {@link GoAnnotations} index in memory. Mapping is a lookup in the index, no database is needed.
+ * <p>
+ * After {@link #register()} it can be connected to through BridgeDb, so that it can be 
+ * used on its own or stacked in front of a gene database:
+ * <pre>
+ * GoAnnotationMapper.register();
+ * IDMapper mapper = BridgeDb.connect("idmapper-goannot:/path/to/mart_export.txt");
+ * IDMapper gaf = BridgeDb.connect("idmapper-goannot:/path/to/goa_human.gaf.gz?exclude-evidence=IEA&exclude-qualifier=NOT");
+ * </pre>
+ * Options after the '?' are: 
+ * <ul>
+ * <li>ds: the full name of the DataSource of the gene ids. The default is
+ * Ensembl for mart exports and UniProt for GAF files. 
+ * <li>exclude-evidence: comma separated evidence codes to leave out
+ * <li>exclude-qualifier: comma separated GAF qualifiers to leave out
+ * </ul>
+ * Files are read once and shared by all mappers connected to the same file with the same options,
+ * until the file changes.
+ */
+public class GoAnnotationMapper implements IDMapper, AttributeMapper
+{
+	/** prefix of the connection string for BridgeDb */
+	public static final String PREFIX = "idmapper-goannot";
+	
+	/** the only attribute that is supported */
+	public static final String SYMBOL = "Symbol";
+	
+	private final GoAnnotations annotations;
+	private final DataSource geneSource;
+	private final Map<String, String> properties;
+	private final Capabilities capabilities = new Capabilities();
+	private volatile boolean connected = true;
+	
+	/**
+	 * @param annotations the annotation index
+	 * @param geneSource the DataSource of the gene ids in the index
+	 * @param properties properties to report through the capabilities, such as where the index 
+	 * 	was read from. These identify the mapper in the {@link GoMappingCache}.
+	 */
+	public GoAnnotationMapper (GoAnnotations annotations, DataSource geneSource, Map<String, String> properties)
+	{
+		this.annotations = annotations;
+		this.geneSource = geneSource;
+		this.properties = Collections.unmodifiableMap(new HashMap<String, String>(properties));
+	}
+	
+	/**
+	 * Register the driver with BridgeDb, under {@link #PREFIX}.
+	 */
+	public static void register()
+	{
+		BridgeDb.register(PREFIX, new Driver());
+	}
+	
+	public GoAnnotations getAnnotations() { return annotations; }
+	
+	/** return the DataSource of the gene ids */
+	public DataSource getGeneSource() { return geneSource; }
+	
+	public Set<Xref> mapID(Xref src, DataSource... tgt) throws IDMapperException
+	{
+		if (src == null || src.getId() == null) return Collections.emptySet();
+		Set<Xref> result = new LinkedHashSet<Xref>();
+		if (src.getDataSource() == BioDataSource.GENE_ONTOLOGY)
+		{
+			if (!isTarget(geneSource, tgt)) return result;
+			int t = annotations.indexOfTerm(GoGraph.parseId(src.getId()));
+			if (t < 0) return result;
+			for (int k = 0; k < annotations.getGeneCount(t); ++k)
+			{
+				result.add (new Xref(annotations.getGene(annotations.getGene(t, k)), geneSource));
+			}
+		}
+		else if (src.getDataSource() == geneSource)
+		{
+			if (!isTarget(BioDataSource.GENE_ONTOLOGY, tgt)) return result;
+			int g = annotations.indexOfGene(src.getId());
+			if (g < 0) return result;
+			for (int k = 0; k < annotations.getTermCount(g); ++k)
+			{
+				result.add (new Xref(GoGraph.formatId(annotations.getAccession(annotations.getTerm(g, k))), 
+						BioDataSource.GENE_ONTOLOGY));
+			}
+		}
+		return result;
+	}
+	
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgt) throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (Xref src : srcXrefs)
+		{
+			result.put (src, mapID(src, tgt));
+		}
+		return result;
+	}
+	
+	/** no target DataSources means all of them */
+	private static boolean isTarget(DataSource ds, DataSource... tgt)
+	{
+		if (tgt == null || tgt.length == 0) return true;
+		for (DataSource t : tgt)
+		{
+			if (t == ds) return true;
+		}
+		return false;
+	}
+	
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		if (xref == null || xref.getId() == null) return false;
+		if (xref.getDataSource() == BioDataSource.GENE_ONTOLOGY) return annotations.indexOfTerm(GoGraph.parseId(xref.getId())) >= 0;
+		return xref.getDataSource() == geneSource && annotations.indexOfGene(xref.getId()) >= 0;
+	}
+	
+	/**
+	 * Search for a gene id, GO id or gene symbol. Symbols are compared ignoring case.
+	 */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		Set<Xref> result = new LinkedHashSet<Xref>();
+		if (limit <= 0) return result;
+		if (annotations.indexOfGene(text) >= 0) result.add(new Xref(text, geneSource));
+		if (annotations.indexOfTerm(GoGraph.parseId(text)) >= 0) result.add(new Xref(text, BioDataSource.GENE_ONTOLOGY));
+		for (int g = 0; g < annotations.getGeneCount() && result.size() < limit; ++g)
+		{
+			String symbol = annotations.getSymbol(g);
+			if (symbol != null && symbol.equalsIgnoreCase(text)) result.add(new Xref(annotations.getGene(g), geneSource));
+		}
+		return result;
+	}
+	
+	public IDMapperCapabilities getCapabilities()
+	{
+		return capabilities;
+	}
+	
+	public void close() throws IDMapperException
+	{
+		connected = false;
+	}
+	
+	public boolean isConnected()
+	{
+		return connected;
+	}
+	
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException
+	{
+		String symbol = SYMBOL.equals(attrType) ? getSymbol(ref) : null;
+		return symbol == null ? Collections.<String>emptySet() : Collections.singleton(symbol);
+	}
+	
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException
+	{
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		String symbol = getSymbol(ref);
+		if (symbol != null) result.put(SYMBOL, Collections.singleton(symbol));
+		return result;
+	}
+	
+	private String getSymbol(Xref ref)
+	{
+		if (ref == null || ref.getDataSource() != geneSource || ref.getId() == null) return null;
+		int g = annotations.indexOfGene(ref.getId());
+		return g < 0 ? null : annotations.getSymbol(g);
+	}
+	
+	public boolean isFreeAttributeSearchSupported()
+	{
+		return true;
+	}
+	
+	/**
+	 * Search for genes with a symbol that contains the query, ignoring case.
+	 */
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException
+	{
+		Map<Xref, String> result = new HashMap<Xref, String>();
+		if (!SYMBOL.equals(attrType)) return result;
+		String lower = query.toLowerCase();
+		for (int g = 0; g < annotations.getGeneCount() && result.size() < limit; ++g)
+		{
+			String symbol = annotations.getSymbol(g);
+			if (symbol != null && symbol.toLowerCase().contains(lower)) result.put(new Xref(annotations.getGene(g), geneSource), symbol);
+		}
+		return result;
+	}
+	
+	public Set<String> getAttributeSet() throws IDMapperException
+	{
+		return Collections.singleton(SYMBOL);
+	}
+	
+	private class Capabilities implements IDMapperCapabilities
+	{
+		public boolean isFreeSearchSupported() 
+		{
+			return true;
+		}
+		
+		public Set<DataSource> getSupportedSrcDataSources() 
+		{
+			return new HashSet<DataSource>(Arrays.asList(BioDataSource.GENE_ONTOLOGY, geneSource));
+		}
+		
+		public Set<DataSource> getSupportedTgtDataSources() 
+		{
+			return getSupportedSrcDataSources();
+		}
+		
+		public boolean isMappingSupported(DataSource src, DataSource tgt) 
+		{
+			return (src == BioDataSource.GENE_ONTOLOGY && tgt == geneSource) 
+				|| (src == geneSource && tgt == BioDataSource.GENE_ONTOLOGY);
+		}
+		
+		public String getProperty(String key) 
+		{
+			return properties.get(key);
+		}
+		
+		public Set<String> getKeys() 
+		{
+			return properties.keySet();
+		}
+	}
+	
+	/**
+	 * Connects to an annotation file, see the class description for the connection string.
+	 */
+	private static class Driver implements org.bridgedb.Driver
+	{
+		/** indexes that were read, by file, file state and options */
+		private final Map<String, SoftReference<Loaded>> loaded = new HashMap<String, SoftReference<Loaded>>();
+		
+		public IDMapper connect(String location) throws IDMapperException
+		{
+			String path = location;
+			Map<String, String> options = new HashMap<String, String>();
+			int q = location.indexOf('?');
+			if (q >= 0)
+			{
+				path = location.substring(0, q);
+				for (String option : location.substring(q + 1).split("&"))
+				{
+					int eq = option.indexOf('=');
+					if (eq < 0) throw new IDMapperException("Invalid option '" + option + "' in " + location);
+					options.put(option.substring(0, eq), option.substring(eq + 1));
+				}
+			}
+			File file = new File(path);
+			if (!file.exists()) throw new IDMapperException("Annotation file " + file + " not found");
+			
+			GoAnnotationReader reader = new GoAnnotationReader();
+			if (options.containsKey("exclude-evidence")) reader.excludeEvidence(options.get("exclude-evidence").split(","));
+			if (options.containsKey("exclude-qualifier")) reader.excludeQualifier(options.get("exclude-qualifier").split(","));
+			
+			Map<String, String> properties = new HashMap<String, String>();
+			properties.put("annotation-file", file.getAbsolutePath());
+			properties.put("annotation-size", "" + file.length());
+			properties.put("annotation-modified", "" + file.lastModified());
+			properties.put("annotation-options", q >= 0 ? location.substring(q + 1) : "");
+			String key = properties.toString();
+			
+			Loaded result;
+			synchronized (loaded)
+			{
+				SoftReference<Loaded> ref = loaded.get(key);
+				result = ref == null ? null : ref.get();
+				if (result == null)
+				{
+					try
+					{
+						result = new Loaded(reader.read(file), reader.isGaf());
+					}
+					catch (IOException e)
+					{
+						throw new IDMapperException("Could not read " + file, e);
+					}
+					loaded.put(key, new SoftReference<Loaded>(result));
+				}
+			}
+			
+			DataSource geneSource;
+			if (options.containsKey("ds")) geneSource = DataSource.getByFullName(options.get("ds"));
+			else geneSource = result.gaf ? BioDataSource.UNIPROT : BioDataSource.ENSEMBL;
+			return new GoAnnotationMapper(result.annotations, geneSource, properties);
+		}
+	}
+	
+	private static class Loaded
+	{
+		final GoAnnotations annotations;
+		final boolean gaf;
+		
+		Loaded (GoAnnotations annotations, boolean gaf)
+		{
+			this.annotations = annotations;
+			this.gaf = gaf;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.pathvisio.core.debug.Logger;
+
+/**
+ * Streaming reader for gene to GO annotation files. Two formats are supported:
+ * <ul>
+ * <li>BioMart export: tab separated, gene id in the first column, GO id in the second 
+ * and optionally the evidence code in the third. A header line is skipped.
+ * <li>GO Annotation Format (GAF) 2.x: recognized by the '!' comment lines at the top. 
+ * The DB object id is used as gene id, and the DB object symbol as its symbol.
+ * </ul>
+ * Either may be gzip compressed, which is recognized from the contents of the file.
+ * <p>
+ * Lines are scanned in place in a read buffer, without regular expressions or 
+ * splitting into Strings, and go straight into a {@link GoAnnotations.Builder}.
+ * Annotations can be left out by evidence code or by qualifier, e.g.
+ * <pre>
+ * GoAnnotations annotations = new GoAnnotationReader()
+ *     .excludeEvidence("IEA").excludeQualifier("NOT").read(file);
+ * </pre>
+ */
+public final class GoAnnotationReader
+{
+	private static final int BUFFER_SIZE = 256 * 1024;
+	
+	// columns of a mart export
+	private static final int MART_GENE = 0;
+	private static final int MART_GO = 1;
+	private static final int MART_EVIDENCE = 2;
+	
+	// columns of a GAF file
+	private static final int GAF_GENE = 1;
+	private static final int GAF_SYMBOL = 2;
+	private static final int GAF_QUALIFIER = 3;
+	private static final int GAF_GO = 4;
+	private static final int GAF_EVIDENCE = 6;
+	
+	private static final int MAX_COLUMNS = 7;
+	
+	private final List<String> excludedEvidence = new ArrayList<String>();
+	private final List<String> excludedQualifiers = new ArrayList<String>();
+	
+	/** reused for each line: start and end of each column */
+	private final int[] columnStart = new int[MAX_COLUMNS];
+	private final int[] columnEnd = new int[MAX_COLUMNS];
+	private final Field gene = new Field();
+	private final Field go = new Field();
+	private final Field field = new Field();
+	
+	private boolean gaf;
+	private int accepted;
+	private int excluded;
+	private int invalid;
+	
+	/**
+	 * Leave out annotations with the given evidence codes, e.g. "IEA".
+	 */
+	public GoAnnotationReader excludeEvidence(String... codes)
+	{
+		excludedEvidence.addAll(Arrays.asList(codes));
+		return this;
+	}
+	
+	/**
+	 * Leave out annotations with the given qualifiers, e.g. "NOT". Only GAF files have qualifiers.
+	 */
+	public GoAnnotationReader excludeQualifier(String... qualifiers)
+	{
+		excludedQualifiers.addAll(Arrays.asList(qualifiers));
+		return this;
+	}
+	
+	/**
+	 * return true if the last file that was read is in GAF format, false if it is a mart export.
+	 */
+	public boolean isGaf()
+	{
+		return gaf;
+	}
+	
+	/**
+	 * Read an annotation file into a new index.
+	 */
+	public GoAnnotations read(File file) throws IOException
+	{
+		GoAnnotations.Builder builder = new GoAnnotations.Builder();
+		read (file, builder);
+		return builder.build();
+	}
+	
+	/**
+	 * Read an annotation file into the given builder, so that several files can be combined.
+	 */
+	public void read(File file, GoAnnotations.Builder builder) throws IOException
+	{
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			read (in, builder);
+		}
+		finally
+		{
+			in.close();
+		}
+		Logger.log.info ("Read " + accepted + " GO annotations from " + file + ", " 
+				+ excluded + " excluded, " + invalid + " lines without a GO id");
+	}
+	
+	/**
+	 * Read annotations from a stream, which may be gzip compressed. The stream is not closed.
+	 */
+	public void read(InputStream in, GoAnnotations.Builder builder) throws IOException
+	{
+		accepted = excluded = invalid = 0;
+		gaf = false;
+		
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		byte[] magic = new byte[2];
+		int len = pushback.read(magic);
+		if (len > 0) pushback.unread(magic, 0, len);
+		in = pushback;
+		if (len == 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B)
+		{
+			in = new GZIPInputStream(pushback, 64 * 1024);
+		}
+		ReadableByteChannel channel = Channels.newChannel(in);
+		
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		int lineStart = 0;
+		int scanned = 0;
+		boolean first = true;
+		while (true)
+		{
+			int read = channel.read(buf);
+			byte[] data = buf.array();
+			int limit = buf.position();
+			for (int i = scanned; i < limit; ++i)
+			{
+				if (data[i] != '\n') continue;
+				if (first && i > lineStart) 
+				{
+					gaf = data[lineStart] == '!';
+					first = false;
+				}
+				line (data, lineStart, i, builder);
+				lineStart = i + 1;
+			}
+			if (read < 0)
+			{
+				if (lineStart < limit) line (data, lineStart, limit, builder);
+				break;
+			}
+			
+			// move the incomplete last line to the front, growing the buffer for very long lines 
+			int rest = limit - lineStart;
+			if (rest == data.length)
+			{
+				ByteBuffer larger = ByteBuffer.allocate(data.length * 2);
+				larger.put(data, 0, rest);
+				buf = larger;
+			}
+			else
+			{
+				System.arraycopy(data, lineStart, data, 0, rest);
+				buf.position(rest);
+			}
+			lineStart = 0;
+			scanned = rest;
+		}
+	}
+	
+	/**
+	 * Process one line, without the line feed.
+	 */
+	private void line(byte[] data, int start, int end, GoAnnotations.Builder builder)
+	{
+		if (end > start && data[end - 1] == '\r') end--;
+		if (end == start || data[start] == '!') return;
+		
+		// find the columns
+		int columns = 0;
+		columnStart[0] = start;
+		for (int i = start; i < end && columns < MAX_COLUMNS; ++i)
+		{
+			if (data[i] == '\t')
+			{
+				columnEnd[columns++] = i;
+				if (columns < MAX_COLUMNS) columnStart[columns] = i + 1;
+			}
+		}
+		if (columns < MAX_COLUMNS) columnEnd[columns++] = end;
+		
+		int geneColumn = gaf ? GAF_GENE : MART_GENE;
+		int goColumn = gaf ? GAF_GO : MART_GO;
+		int evidenceColumn = gaf ? GAF_EVIDENCE : MART_EVIDENCE;
+		if (columns <= goColumn)
+		{
+			invalid++;
+			return;
+		}
+		
+		if (evidenceColumn < columns && !excludedEvidence.isEmpty())
+		{
+			field.set(data, columnStart[evidenceColumn], columnEnd[evidenceColumn]);
+			if (contains(excludedEvidence, field))
+			{
+				excluded++;
+				return;
+			}
+		}
+		if (gaf && !excludedQualifiers.isEmpty() && isExcludedQualifier(data, columnStart[GAF_QUALIFIER], columnEnd[GAF_QUALIFIER]))
+		{
+			excluded++;
+			return;
+		}
+		
+		gene.set(data, columnStart[geneColumn], columnEnd[geneColumn]);
+		go.set(data, columnStart[goColumn], columnEnd[goColumn]);
+		if (gene.length() == 0 || !builder.add(gene, go))
+		{
+			// e.g. the header of a mart export, or a gene without GO terms
+			invalid++;
+			return;
+		}
+		accepted++;
+		if (gaf)
+		{
+			field.set(data, columnStart[GAF_SYMBOL], columnEnd[GAF_SYMBOL]);
+			builder.setSymbol(gene, field);
+		}
+	}
+	
+	/** a qualifier column may hold several qualifiers separated by '|' */
+	private boolean isExcludedQualifier(byte[] data, int start, int end)
+	{
+		int from = start;
+		for (int i = start; i <= end; ++i)
+		{
+			if (i == end || data[i] == '|')
+			{
+				field.set(data, from, i);
+				if (contains(excludedQualifiers, field)) return true;
+				from = i + 1;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean contains(List<String> values, CharSequence s)
+	{
+		for (String value : values)
+		{
+			if (value.contentEquals(s)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Reusable CharSequence on a column in the read buffer. ASCII text, which is what 
+	 * ids and codes normally are, is read straight from the bytes; anything else is
+	 * decoded as UTF-8 first.
+	 */
+	private static final class Field implements CharSequence
+	{
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+		
+		private byte[] data;
+		private int start;
+		private int end;
+		private String decoded;
+		
+		void set(byte[] data, int start, int end)
+		{
+			this.data = data;
+			this.start = start;
+			this.end = end;
+			decoded = null;
+			for (int i = start; i < end; ++i)
+			{
+				if (data[i] < 0)
+				{
+					decoded = new String (data, start, end - start, UTF8);
+					break;
+				}
+			}
+		}
+		
+		public int length()
+		{
+			return decoded != null ? decoded.length() : end - start;
+		}
+		
+		public char charAt(int index)
+		{
+			if (decoded != null) return decoded.charAt(index);
+			if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException("" + index);
+			return (char)data[start + index];
+		}
+		
+		public CharSequence subSequence(int from, int to)
+		{
+			return toString().subSequence(from, to);
+		}
+		
+		@Override
+		public String toString()
+		{
+			return decoded != null ? decoded : new String (data, start, end - start, UTF8);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact, immutable index of gene to GO annotations, in both directions.
+ * <p>
+ * Genes are numbered 0 to getGeneCount() - 1 through a dictionary of gene ids. 
+ * GO terms are numbered 0 to getTermCount() - 1 in order of GO accession number 
+ * (GO:0008020 -> 8020). Both directions are stored in compressed sparse row int arrays, 
+ * so the GO terms of gene g are the entries from termStart[g] up to termStart[g + 1], 
+ * sorted by accession, and likewise for the genes of a term.
+ * <p>
+ * Use a {@link Builder} to create one, or {@link GoAnnotationReader} to read one from file. 
+ */
+public final class GoAnnotations
+{
+	private final GeneDictionary genes;
+	private final String[] symbols;
+	private final int[] accessions;
+	private final int[] termStart;
+	private final int[] terms;
+	private final int[] geneStart;
+	private final int[] geneList;
+	
+	private GoAnnotations(GeneDictionary genes, String[] symbols, int[] accessions, 
+			int[] termStart, int[] terms, int[] geneStart, int[] geneList)
+	{
+		this.genes = genes;
+		this.symbols = symbols;
+		this.accessions = accessions;
+		this.termStart = termStart;
+		this.terms = terms;
+		this.geneStart = geneStart;
+		this.geneList = geneList;
+	}
+	
+	/** number of distinct genes */
+	public int getGeneCount() { return genes.size(); }
+	
+	/** number of distinct GO terms */
+	public int getTermCount() { return accessions.length; }
+	
+	/** number of distinct gene - GO term pairs */
+	public int getAnnotationCount() { return terms.length; }
+	
+	/** return the gene id of gene number g */
+	public String getGene(int g) { return genes.get(g); }
+	
+	/** return the symbol of gene number g, or null if the annotation file didn't have one */
+	public String getSymbol(int g) { return symbols[g]; }
+	
+	/** return the number of a gene id, or -1 if the gene is not in the index */
+	public int indexOfGene(CharSequence geneId) { return genes.indexOf(geneId); }
+	
+	/** return the GO accession number of term number t */
+	public int getAccession(int t) { return accessions[t]; }
+	
+	/** return the number of a GO accession, or a negative number if the term has no annotations */
+	public int indexOfTerm(int accession) { return accession < 0 ? -1 : Arrays.binarySearch(accessions, accession); }
+	
+	public int getTermCount(int gene) { return termStart[gene + 1] - termStart[gene]; }
+	/** return the number of the k-th GO term of a gene */
+	public int getTerm(int gene, int k) { return terms[termStart[gene] + k]; }
+	
+	public int getGeneCount(int term) { return geneStart[term + 1] - geneStart[term]; }
+	/** return the number of the k-th gene of a GO term */
+	public int getGene(int term, int k) { return geneList[geneStart[term] + k]; }
+	
+	/**
+	 * return the GO ids of a gene, as an unmodifiable view on the index.
+	 */
+	public Set<String> getGoIds(String geneId)
+	{
+		int g = indexOfGene(geneId);
+		if (g < 0) return Collections.emptySet();
+		return new View(terms, termStart[g], termStart[g + 1])
+		{
+			String get(int value) { return GoGraph.formatId(accessions[value]); }
+			int find(Object o) { return o instanceof String ? indexOfTerm(GoGraph.parseId((String)o)) : -1; }
+		};
+	}
+	
+	/**
+	 * return the genes annotated with a GO id, as an unmodifiable view on the index.
+	 */
+	public Set<String> getGenes(String goId)
+	{
+		int t = indexOfTerm(GoGraph.parseId(goId));
+		if (t < 0) return Collections.emptySet();
+		return new View(geneList, geneStart[t], geneStart[t + 1])
+		{
+			String get(int value) { return genes.get(value); }
+			int find(Object o) { return o instanceof String ? indexOfGene((String)o) : -1; }
+		};
+	}
+	
+	/**
+	 * Unmodifiable set of strings over a sorted run of an int array. 
+	 */
+	private static abstract class View extends AbstractSet<String>
+	{
+		private final int[] data;
+		private final int start;
+		private final int end;
+		
+		View (int[] data, int start, int end)
+		{
+			this.data = data;
+			this.start = start;
+			this.end = end;
+		}
+		
+		/** convert a value from the run to a String */
+		abstract String get(int value);
+		/** convert a String back to a value, -1 if it can't be in any run */
+		abstract int find(Object o);
+		
+		@Override
+		public int size() { return end - start; }
+		
+		@Override
+		public boolean contains(Object o)
+		{
+			int value = find(o);
+			return value >= 0 && Arrays.binarySearch(data, start, end, value) >= 0;
+		}
+		
+		@Override
+		public Iterator<String> iterator()
+		{
+			return new Iterator<String>()
+			{
+				private int next = start;
+				public boolean hasNext() { return next < end; }
+				public String next()
+				{
+					if (next >= end) throw new NoSuchElementException();
+					return get(data[next++]);
+				}
+				public void remove() { throw new UnsupportedOperationException(); }
+			};
+		}
+	}
+	
+	/**
+	 * Collects gene - GO term pairs and builds a GoAnnotations index from them.
+	 * Duplicate pairs are ignored.
+	 */
+	public static class Builder
+	{
+		private final GeneDictionary genes = new GeneDictionary();
+		private final IntList geneCodes = new IntList(1024);
+		private final IntList accessionList = new IntList(1024);
+		private String[] symbols = new String[1024];
+		
+		/**
+		 * Add an annotation.
+		 * @param geneId the gene, e.g. an Ensembl id
+		 * @param goId the GO id, e.g. "GO:0008020"
+		 * @return false if the GO id is not valid, in which case the pair is not added.
+		 */
+		public boolean add(CharSequence geneId, CharSequence goId)
+		{
+			int accession = GoGraph.parseId(goId);
+			if (accession < 0) return false;
+			add (geneId, accession);
+			return true;
+		}
+		
+		/**
+		 * Add an annotation, with the GO term given by its accession number.
+		 */
+		public void add(CharSequence geneId, int accession)
+		{
+			geneCodes.add(genes.add(geneId));
+			accessionList.add(accession);
+		}
+		
+		/**
+		 * Set the symbol of a gene, e.g. "TP53". Only the first symbol given for a gene is kept.
+		 */
+		public void setSymbol(CharSequence geneId, CharSequence symbol)
+		{
+			int g = genes.add(geneId);
+			if (g >= symbols.length) symbols = Arrays.copyOf(symbols, Math.max(g + 1, symbols.length * 2));
+			if (symbols[g] == null && symbol.length() > 0) symbols[g] = symbol.toString();
+		}
+		
+		public GoAnnotations build()
+		{
+			int n = geneCodes.size();
+			// sort the pairs by gene, then accession. Genes and accessions both fit in 32 bits.
+			long[] pairs = new long[n];
+			for (int i = 0; i < n; ++i)
+			{
+				pairs[i] = ((long)geneCodes.get(i) << 32) | (accessionList.get(i) & 0xFFFFFFFFL);
+			}
+			Arrays.sort(pairs);
+			int unique = 0;
+			for (int i = 0; i < n; ++i)
+			{
+				if (unique == 0 || pairs[unique - 1] != pairs[i]) pairs[unique++] = pairs[i];
+			}
+			
+			// number the distinct accessions in order
+			int[] sortedAccessions = new int[unique];
+			for (int i = 0; i < unique; ++i) sortedAccessions[i] = (int)pairs[i];
+			Arrays.sort(sortedAccessions);
+			int termCount = 0;
+			for (int i = 0; i < unique; ++i)
+			{
+				if (termCount == 0 || sortedAccessions[termCount - 1] != sortedAccessions[i]) 
+					sortedAccessions[termCount++] = sortedAccessions[i];
+			}
+			int[] accessions = Arrays.copyOf(sortedAccessions, termCount);
+			
+			int geneCount = genes.size();
+			int[] termStart = new int[geneCount + 1];
+			int[] terms = new int[unique];
+			int[] geneStart = new int[termCount + 1];
+			for (int i = 0; i < unique; ++i)
+			{
+				int g = (int)(pairs[i] >>> 32);
+				int t = Arrays.binarySearch(accessions, (int)pairs[i]);
+				terms[i] = t;
+				termStart[g + 1]++;
+				geneStart[t + 1]++;
+			}
+			for (int g = 0; g < geneCount; ++g) termStart[g + 1] += termStart[g];
+			for (int t = 0; t < termCount; ++t) geneStart[t + 1] += geneStart[t];
+			
+			// pairs are sorted by gene, so the genes of each term end up sorted too
+			int[] geneList = new int[unique];
+			int[] fill = Arrays.copyOf(geneStart, termCount);
+			for (int i = 0; i < unique; ++i)
+			{
+				geneList[fill[terms[i]]++] = (int)(pairs[i] >>> 32);
+			}
+			
+			return new GoAnnotations(genes, Arrays.copyOf(symbols, geneCount), accessions, termStart, terms, geneStart, geneList);
+		}
+	}
+}
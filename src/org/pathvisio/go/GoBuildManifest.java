@@ -0,0 +1,252 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.Xref;
+import org.pathvisio.core.debug.Logger;
+
+/**
+ * Remembers which GO pathways in an output directory are up to date, so that a bulk 
+ * build can skip them when it is run again, e.g. after a crash or for a new release 
+ * of the ontology or gene database.
+ * <p>
+ * For each pathway written, the manifest has a hash of everything that goes into it: 
+ * the ids, names and children of the terms in the subtree, the genes mapped to each 
+ * of those terms, and the layout settings. Gene symbols are not part of the hash.
+ * A pathway is up to date when the hash is the same and the file is still there, 
+ * with the same size.
+ * <p>
+ * The manifest is a text file in the output directory, with one line per pathway. 
+ * A line is appended and flushed after each pathway is written, so that a crash
+ * loses at most the pathway that was being written. When a term is written more than once, 
+ * the last line counts.
+ */
+public final class GoBuildManifest
+{
+	public static final String FILE_NAME = "go-build-manifest.txt";
+	
+	/** changes whenever the layout of the pathways changes */
+	static final String LAYOUT_SETTINGS = "layout-1;" + GoPathway.MAXCOLNUM + ";" + GoPathway.DATANODEWIDTH 
+		+ ";" + GoPathway.DATANODEHEIGHT + ";" + GoPathway.LABELWIDTH + ";" + GoPathway.LABELHEIGHT 
+		+ ";" + GoPathway.MARGIN + ";" + GoPathway.INDENT;
+	
+	private static class Entry
+	{
+		final String hash;
+		final long length;
+		final String fileName;
+		
+		Entry (String hash, long length, String fileName)
+		{
+			this.hash = hash;
+			this.length = length;
+			this.fileName = fileName;
+		}
+	}
+	
+	private final File file;
+	private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+	private Writer out;
+	
+	/**
+	 * Read the manifest of an output directory, if there is one.
+	 */
+	public GoBuildManifest (File destDir) throws IOException
+	{
+		file = new File (destDir, FILE_NAME);
+		if (file.exists()) read();
+	}
+	
+	private void read() throws IOException
+	{
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				if (line.startsWith("#")) continue;
+				String[] fields = line.split("\t");
+				// a line cut off by a crash has less fields, or a length that doesn't parse
+				if (fields.length != 4) continue;
+				try
+				{
+					entries.put (GoGraph.parseId(fields[0]), new Entry(fields[1], Long.parseLong(fields[2]), fields[3]));
+				}
+				catch (NumberFormatException e)
+				{
+					// ignore the line
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		Logger.log.info ("Build manifest " + file + " has " + entries.size() + " pathways");
+	}
+	
+	/**
+	 * return true if the pathway of a term was written before from the same inputs, 
+	 * and the file hasn't changed in size since.
+	 */
+	public synchronized boolean isUpToDate (GoTerm term, String hash, File output)
+	{
+		Entry entry = entries.get(term.getAccession());
+		return entry != null && entry.hash.equals(hash) && entry.fileName.equals(output.getName())
+			&& output.length() == entry.length;
+	}
+	
+	/**
+	 * Add a line for a pathway that has been written completely.
+	 */
+	public synchronized void record (GoTerm term, String hash, File output) throws IOException
+	{
+		if (out == null)
+		{
+			boolean exists = file.exists();
+			boolean newLine = exists && !endsWithNewLine();
+			out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+			if (!exists) out.write("# GO term\thash\tfile size\tfile name\n");
+			// finish a line that was cut off by a crash, so that it doesn't run into the next
+			if (newLine) out.write("\n");
+		}
+		Entry entry = new Entry(hash, output.length(), output.getName());
+		out.write(term.getId() + "\t" + entry.hash + "\t" + entry.length + "\t" + entry.fileName + "\n");
+		out.flush();
+		entries.put(term.getAccession(), entry);
+	}
+	
+	private boolean endsWithNewLine() throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			if (raf.length() == 0) return true;
+			raf.seek(raf.length() - 1);
+			return raf.read() == '\n';
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+	
+	public synchronized void close() throws IOException
+	{
+		if (out != null) out.close();
+		out = null;
+	}
+	
+	/**
+	 * Compute the hash of the inputs of the pathway of a mapped subtree.
+	 * Terms are hashed in order of accession number, and genes in order of id, so that 
+	 * the hash doesn't depend on the order the ontology or mapper returns them in.
+	 */
+	public static String hash (GoSubtreeRefs refs)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e); // every JRE has SHA-1
+		}
+		
+		GoTerm base = refs.getBase();
+		GoGraph graph = base.getGraph();
+		GoClosure closure = graph.getClosure();
+		int root = base.getIndex();
+		int count = closure.getDescendantCount(root);
+		int[] subtree = new int[count + 1];
+		subtree[0] = graph.getAccession(root);
+		for (int k = 0; k < count; ++k)
+		{
+			subtree[k + 1] = graph.getAccession(closure.getDescendant(root, k));
+		}
+		Arrays.sort(subtree);
+		
+		StringBuilder buf = new StringBuilder();
+		update (digest, buf.append(LAYOUT_SETTINGS).append('\n').append(base.getId()).append('\n'));
+		for (int accession : subtree)
+		{
+			int term = graph.indexOf(accession);
+			buf.append(graph.getTerm(term).getId()).append('\t').append(graph.getName(term));
+			for (int k = 0; k < graph.getChildCount(term); ++k)
+			{
+				buf.append('\t').append(graph.getAccession(graph.getChild(term, k)));
+			}
+			buf.append('\n');
+			
+			Set<Xref> genes = refs.getRefs(graph.getTerm(term));
+			List<String> ids = new ArrayList<String>(genes.size());
+			for (Xref ref : genes)
+			{
+				ids.add (ref.getDataSource().getFullName() + ":" + ref.getId());
+			}
+			Collections.sort(ids);
+			for (String id : ids)
+			{
+				buf.append(id).append('\n');
+			}
+			update (digest, buf);
+		}
+		
+		StringBuilder result = new StringBuilder();
+		for (byte b : digest.digest())
+		{
+			result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+	
+	/** add the contents of the buffer to the digest, and clear it */
+	private static void update (MessageDigest digest, StringBuilder buf)
+	{
+		try
+		{
+			digest.update(buf.toString().getBytes("UTF-8"));
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e); // every JRE has UTF-8
+		}
+		buf.setLength(0);
+	}
+}
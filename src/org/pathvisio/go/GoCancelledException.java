@@ -0,0 +1,41 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+/**
+ * Thrown when making a GO pathway is stopped, because it was cancelled, or because 
+ * it went over its time or element budget, see {@link GoProgress}.
+ * It is unchecked, so that it can pass through the worker threads and callbacks of the layout.
+ */
+public class GoCancelledException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+	
+	private final boolean overBudget;
+	
+	public GoCancelledException (String message, boolean overBudget)
+	{
+		super (message);
+		this.overBudget = overBudget;
+	}
+	
+	/** return true if the work went over its budget, false if it was cancelled */
+	public boolean isOverBudget()
+	{
+		return overBudget;
+	}
+}
@@ -0,0 +1,417 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * GO enrichment analysis: tests for each term whether a list of genes has more genes 
+ * annotated with the term (or its descendants) than expected by chance.
+ * <p>
+ * An instance is set up for one background, the genes that could have been in the list. 
+ * The number of background genes under each term is counted up front, so that testing 
+ * a list only needs the overlap of the list with each term. Overlaps are counted from the 
+ * side of the genes: each gene in the list adds one to its terms and their ancestors, 
+ * which for a short list is far less work than intersecting the list with every term. Probabilities are computed from a table of 
+ * log factorials. Terms without background genes are not tested. P-values are corrected for 
+ * multiple testing with the Benjamini-Hochberg procedure.
+ * <p>
+ * An instance doesn't change after it is constructed, so many lists can be tested at the same 
+ * time from different threads. 
+ */
+public final class GoEnrichment
+{
+	/** the statistical test to use */
+	public enum Test
+	{
+		/** one-sided: probability of the observed overlap or a larger one. Same as a one-sided Fisher's exact test. */
+		HYPERGEOMETRIC,
+		/** two-sided Fisher's exact test: probability of any overlap that is as unlikely as the observed one, or more. */
+		FISHER;
+	}
+	
+	/** relative tolerance when comparing probabilities in the two-sided test */
+	private static final double FISHER_TOLERANCE = 1e-7;
+	
+	private final GoPropagatedAnnotations propagated;
+	private final GeneBitmap background;
+	/** number of background genes under each term */
+	private final int[] termSize;
+	/** graph indices of the terms with background genes */
+	private final int[] tested;
+	private final double[] logFactorial;
+	
+	/**
+	 * Set up enrichment with all annotated genes as background.
+	 */
+	public GoEnrichment (GoPropagatedAnnotations propagated)
+	{
+		this (propagated, null);
+	}
+	
+	/**
+	 * Set up enrichment with the given background.
+	 * @param background gene numbers of the background, or null to use all genes that are annotated 
+	 * 	with at least one term.
+	 */
+	public GoEnrichment (GoPropagatedAnnotations propagated, GeneBitmap background)
+	{
+		this.propagated = propagated;
+		GoGraph graph = propagated.getGraph();
+		if (background == null)
+		{
+			// every annotated gene is under at least one root
+			background = GeneBitmap.EMPTY;
+			for (int i = 0; i < graph.size(); ++i)
+			{
+				if (graph.getParentCount(i) == 0) background = background.or(propagated.getGenes(i));
+			}
+		}
+		this.background = background;
+		
+		termSize = new int[graph.size()];
+		IntList testable = new IntList();
+		for (int i = 0; i < graph.size(); ++i)
+		{
+			termSize[i] = propagated.getGenes(i).andCardinality(background);
+			if (termSize[i] > 0) testable.add(i);
+		}
+		tested = testable.toArray();
+		
+		logFactorial = new double[background.cardinality() + 1];
+		for (int i = 1; i < logFactorial.length; ++i)
+		{
+			logFactorial[i] = logFactorial[i - 1] + Math.log(i);
+		}
+	}
+	
+	public GoPropagatedAnnotations getPropagated() { return propagated; }
+	
+	public GeneBitmap getBackground() { return background; }
+	
+	/** return the number of terms with at least one background gene, which are the terms that are tested */
+	public int getTestedTermCount() { return tested.length; }
+	
+	/** return the graph index of the k-th tested term */
+	int getTestedTerm(int k) { return tested[k]; }
+	
+	/** return the number of background genes annotated with the term or its descendants */
+	public int getTermSize(int term) { return termSize[term]; }
+	
+	/**
+	 * Convert gene ids to a set of gene numbers. Ids that are not in the annotations are left out.
+	 */
+	public GeneBitmap toGenes(Collection<String> geneIds)
+	{
+		GoAnnotations annotations = propagated.getAnnotations();
+		int[] genes = new int[geneIds.size()];
+		int count = 0;
+		for (String id : geneIds)
+		{
+			int g = annotations.indexOfGene(id);
+			if (g >= 0) genes[count++] = g;
+		}
+		Arrays.sort(genes, 0, count);
+		int unique = 0;
+		for (int i = 0; i < count; ++i)
+		{
+			if (unique == 0 || genes[unique - 1] != genes[i]) genes[unique++] = genes[i];
+		}
+		return GeneBitmap.fromSorted(genes, 0, unique);
+	}
+	
+	/**
+	 * Test a list of genes against all terms on the calling thread.
+	 * Genes that are not in the background are ignored.
+	 */
+	public Result test (GeneBitmap list, Test test)
+	{
+		Result result = new Result(list.and(background));
+		result.count();
+		result.compute(0, tested.length, test);
+		result.finish();
+		return result;
+	}
+	
+	/**
+	 * Test a list of genes against all terms, split in the given number of parts that are 
+	 * run on the given executor. 
+	 */
+	public Result test (GeneBitmap list, final Test test, ExecutorService executor, int parts) throws InterruptedException
+	{
+		final Result result = new Result(list.and(background));
+		result.count();
+		parts = Math.max(1, Math.min(parts, tested.length));
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int p = 0; p < parts; ++p)
+		{
+			final int from = (int)((long)tested.length * p / parts);
+			final int to = (int)((long)tested.length * (p + 1) / parts);
+			futures.add (executor.submit(new Callable<Object>() {
+				public Object call()
+				{
+					result.compute(from, to, test);
+					return null;
+				}
+			}));
+		}
+		for (Future<Object> future : futures)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		result.finish();
+		return result;
+	}
+	
+	/**
+	 * return the probability of an overlap of at least k, or of an overlap as unlikely as k 
+	 * for the two-sided test.
+	 * @param N background size
+	 * @param K term size
+	 * @param n list size
+	 * @param k overlap
+	 */
+	double pValue (int N, int K, int n, int k, Test test)
+	{
+		int lo = Math.max(0, n + K - N);
+		int hi = Math.min(K, n);
+		if (k <= lo && test == Test.HYPERGEOMETRIC) return 1.0;
+		if (lo == hi) return 1.0;
+		
+		// the distribution rises up to the mode and falls after it
+		int mode = (int)(((double)(n + 1) * (K + 1)) / (N + 2));
+		mode = Math.max(lo, Math.min(hi, mode));
+		
+		if (test == Test.HYPERGEOMETRIC)
+		{
+			// below the mode, the upper tail is the larger one, so compute it from the lower tail
+			if (k <= mode) return Math.max(0.0, 1.0 - tail(N, K, n, k - 1, lo, -1, Math.exp(logProbability(N, K, n, k - 1))));
+			return Math.min(1.0, tail(N, K, n, k, hi, 1, Math.exp(logProbability(N, K, n, k))));
+		}
+		
+		// two-sided: the probabilities not larger than that of k. Those make up a tail on 
+		// either side of the mode, one of which holds k. 
+		double observed = logProbability(N, K, n, k);
+		double limit = observed + Math.log1p(FISHER_TOLERANCE);
+		// if the mode is not more likely than k, no overlap is. This also covers a k next
+		// to the mode that is just as likely, which happens when the distribution has two modes.
+		if (logProbability(N, K, n, mode) <= limit) return 1.0;
+		int dir = k > mode ? 1 : -1;
+		
+		// Probabilities only go down moving away from the mode, so binary searches will do. 
+		// The tail of k starts at the overlap nearest the mode that is not more likely than k.
+		int start = edge (N, K, n, mode, k, limit);
+		double sum = tail(N, K, n, start, dir > 0 ? hi : lo, dir, Math.exp(logProbability(N, K, n, start)));
+		
+		int to = dir > 0 ? lo : hi;
+		if (logProbability(N, K, n, to) <= limit)
+		{
+			int from = edge (N, K, n, mode, to, limit);
+			sum += tail(N, K, n, from, to, -dir, Math.exp(logProbability(N, K, n, from)));
+		}
+		return Math.min(1.0, sum);
+	}
+	
+	/**
+	 * Find the overlap nearest the mode, between the mode and end, whose log probability 
+	 * is at most limit. The mode must be above limit, end must not be.
+	 */
+	private int edge (int N, int K, int n, int mode, int end, double limit)
+	{
+		int from = mode, to = end; // from is above the limit, to is not
+		while (Math.abs(to - from) > 1)
+		{
+			int mid = (from + to) / 2;
+			if (logProbability(N, K, n, mid) <= limit) to = mid; else from = mid;
+		}
+		return to;
+	}
+	
+	/**
+	 * Sum the probabilities from overlap start to end, moving away from the mode in direction dir. 
+	 * Each probability is computed from the previous one, starting with p, the probability at start.
+	 */
+	private static double tail (int N, int K, int n, int start, int end, int dir, double p)
+	{
+		double sum = p;
+		for (int i = start; i != end; i += dir)
+		{
+			if (dir > 0) p *= (double)(K - i) * (n - i) / ((double)(i + 1) * (N - K - n + i + 1));
+			else p *= (double)i * (N - K - n + i) / ((double)(K - i + 1) * (n - i + 1));
+			sum += p;
+			if (p <= sum * 1e-17) break; // the remaining terms only get smaller
+		}
+		return sum;
+	}
+	
+	/** 
+	 * Stable merge sort of positions by their value, so that equal values keep their order. 
+	 */
+	private static void sort (int[] positions, int[] buffer, int from, int to, double[] values)
+	{
+		if (to - from < 2) return;
+		int mid = (from + to) >>> 1;
+		sort (positions, buffer, from, mid, values);
+		sort (positions, buffer, mid, to, values);
+		if (values[positions[mid - 1]] <= values[positions[mid]]) return; // already in order
+		System.arraycopy(positions, from, buffer, from, to - from);
+		int i = from, j = mid;
+		for (int k = from; k < to; ++k)
+		{
+			if (j >= to || (i < mid && values[buffer[i]] <= values[buffer[j]])) positions[k] = buffer[i++];
+			else positions[k] = buffer[j++];
+		}
+	}
+	
+	/**
+	 * Count for each term of the graph how many genes of the list are annotated with it 
+	 * or its descendants.
+	 * @param counts receives the counts, by graph index. Must be all zero.
+	 * @param seen scratch space, as long as counts. Must be filled with -1.
+	 */
+	void countOverlap (GeneBitmap list, int[] counts, int[] seen)
+	{
+		GoAnnotations annotations = propagated.getAnnotations();
+		GoClosure closure = propagated.getGraph().getClosure();
+		for (int g = list.next(0); g >= 0; g = list.next(g + 1))
+		{
+			for (int k = 0; k < annotations.getTermCount(g); ++k)
+			{
+				int term = propagated.getGraphIndex(annotations.getTerm(g, k));
+				if (term < 0 || seen[term] == g) continue;
+				seen[term] = g;
+				counts[term]++;
+				for (int a = 0; a < closure.getAncestorCount(term); ++a)
+				{
+					int ancestor = closure.getAncestor(term, a);
+					if (seen[ancestor] == g) continue;
+					seen[ancestor] = g;
+					counts[ancestor]++;
+				}
+			}
+		}
+	}
+	
+	/** log of the probability of an overlap of exactly k */
+	double logProbability (int N, int K, int n, int k)
+	{
+		double[] lf = logFactorial;
+		return lf[K] - lf[k] - lf[K - k] + lf[N - K] - lf[n - k] - lf[N - K - n + k] - lf[N] + lf[n] + lf[N - n];
+	}
+	
+	/**
+	 * Outcome of testing one list of genes. Rows are the tested terms, from the lowest 
+	 * p-value to the highest.
+	 */
+	public final class Result
+	{
+		private final GeneBitmap list;
+		/** overlap by graph index */
+		private final int[] overlap = new int[propagated.getGraph().size()];
+		private final double[] pValues = new double[tested.length];
+		private double[] adjusted;
+		/** row to position in tested */
+		private int[] order;
+		
+		private Result (GeneBitmap list)
+		{
+			this.list = list;
+		}
+		
+		private void count ()
+		{
+			int[] seen = new int[overlap.length];
+			Arrays.fill(seen, -1);
+			countOverlap(list, overlap, seen);
+		}
+		
+		private void compute (int from, int to, Test test)
+		{
+			int N = background.cardinality();
+			int n = list.cardinality();
+			for (int k = from; k < to; ++k)
+			{
+				int term = tested[k];
+				pValues[k] = pValue(N, termSize[term], n, overlap[term], test);
+			}
+		}
+		
+		/** sort by p-value and compute the Benjamini-Hochberg adjusted p-values */
+		private void finish ()
+		{
+			int m = tested.length;
+			// usually most terms have a p-value of 1, those only need to go to the end
+			order = new int[m];
+			int below = 0;
+			for (int k = 0; k < m; ++k)
+			{
+				if (pValues[k] < 1.0) order[below++] = k;
+			}
+			int end = below;
+			for (int k = 0; k < m; ++k)
+			{
+				if (pValues[k] >= 1.0) order[end++] = k;
+			}
+			sort (order, new int[below], 0, below, pValues);
+			
+			adjusted = new double[m];
+			double min = 1.0;
+			for (int r = m - 1; r >= 0; --r)
+			{
+				min = Math.min(min, pValues[order[r]] * m / (r + 1));
+				adjusted[r] = min;
+			}
+		}
+		
+		/** return the genes that were tested, the list without the genes outside the background */
+		public GeneBitmap getList() { return list; }
+		
+		/** return the number of terms that were tested */
+		public int size() { return tested.length; }
+		
+		/** return the graph index of the term in the given row */
+		public int getTermIndex(int row) { return tested[order[row]]; }
+		
+		public GoTerm getTerm(int row) { return propagated.getGraph().getTerm(getTermIndex(row)); }
+		
+		/** return the number of genes of the list under the term */
+		public int getOverlap(int row) { return overlap[getTermIndex(row)]; }
+		
+		/** return the number of background genes under the term */
+		public int getTermSize(int row) { return termSize[getTermIndex(row)]; }
+		
+		public double getPValue(int row) { return pValues[order[row]]; }
+		
+		/** return the p-value with Benjamini-Hochberg correction, an upper bound on the false discovery rate */
+		public double getAdjustedPValue(int row) { return adjusted[row]; }
+	}
+}
@@ -0,0 +1,306 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.SchemaFactory;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.GpmlFormat;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+import org.xml.sax.SAXException;
+
+/**
+ * Writes a GO pathway to a GPML file while it is laid out, one element at a time, 
+ * so that memory use doesn't grow with the number of genes. 
+ * <p>
+ * Each element is converted with {@link GpmlFormat#createJdomElement(PathwayElement)}, 
+ * the conversion that {@link Pathway#writeToXml(File, boolean)} uses as well, and is 
+ * then written out and forgotten. GPML lists all DataNodes before all Labels, and those 
+ * before all Groups, while the layout produces them mixed. Each kind is therefore written 
+ * to its own temporary file first, in the order they are added. {@link #finish(boolean)} 
+ * puts them together behind the header.
+ * <p>
+ * The header is converted by {@link GpmlFormat#createJdom(Pathway)} as well, from a Pathway
+ * that only holds the pathway information. The elements are not in that Pathway, 
+ * so the size of the board is worked out here, the way Pathway does.
+ * <p>
+ * Group ids are assigned as groups are added, so {@link PathwayElement#createGroupId()} 
+ * can be called after adding a group, like for a Pathway. They have the same form as 
+ * the ids a Pathway makes, hexadecimal starting with a letter, but are numbered in order.
+ * <p>
+ * The temporary files are in the system temporary directory, and are removed by {@link #close()}.
+ */
+public final class GoGpmlWriter implements GoPathway.ElementSink
+{
+	/** the GPML schema in the PathVisio core bundle, the one writeToXml validates against */
+	private static final String SCHEMA = "GPML2013a.xsd";
+	
+	/** space around the elements on the board, like Pathway */
+	static final double BORDER_SIZE = 30;
+	
+	/** the kinds of elements in the order they are in GPML */
+	private static final String[] SPOOL_KINDS = { "datanodes", "labels", "groups" };
+	
+	/** a temporary file with the elements of one kind */
+	private static class Spool
+	{
+		final File file;
+		final Writer out;
+		
+		Spool (String kind) throws IOException
+		{
+			file = File.createTempFile("go-gpml-", "." + kind);
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		}
+		
+		void delete()
+		{
+			try { out.close(); } catch (IOException e) { /* ignore */ }
+			file.delete();
+		}
+	}
+	
+	private final File output;
+	/** holds only the pathway information, for the header */
+	private final Pathway header = new Pathway();
+	private final XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
+	private final Spool dataNodes;
+	private final Spool labels;
+	private final Spool groups;
+	private double boardWidth = 0;
+	private double boardHeight = 0;
+	/** like Pathway.getUniqueId, with enough digits for any number of groups */
+	private int nextGroupId = 0xa000000;
+	/** the first error while spooling, thrown again by {@link #finish(boolean)} */
+	private ConverterException error = null;
+	
+	public GoGpmlWriter (File output) throws IOException
+	{
+		this.output = output;
+		Spool[] spools = new Spool[3];
+		try
+		{
+			for (int i = 0; i < spools.length; ++i) spools[i] = new Spool(SPOOL_KINDS[i]);
+		}
+		catch (IOException e)
+		{
+			for (Spool spool : spools) if (spool != null) spool.delete();
+			throw e;
+		}
+		dataNodes = spools[0];
+		labels = spools[1];
+		groups = spools[2];
+	}
+	
+	/** return the element with the name, author and other information of the pathway */
+	public PathwayElement getMappInfo()
+	{
+		return header.getMappInfo();
+	}
+	
+	public void add (PathwayElement elt)
+	{
+		if (error != null) return;
+		Spool spool;
+		switch (elt.getObjectType())
+		{
+		case DATANODE:
+			spool = dataNodes;
+			grow (elt);
+			break;
+		case LABEL:
+			spool = labels;
+			grow (elt);
+			break;
+		case GROUP:
+			spool = groups;
+			if (elt.getGroupId() == null) elt.setGroupId(Integer.toHexString(nextGroupId++));
+			break;
+		default:
+			throw new IllegalArgumentException("Can't stream " + elt.getObjectType());
+		}
+		try
+		{
+			write (GpmlFormat.createJdomElement(elt), spool.out);
+		}
+		catch (ConverterException e)
+		{
+			error = e;
+		}
+		catch (IOException e)
+		{
+			error = new ConverterException(e);
+		}
+	}
+	
+	/** grow the board to fit a DataNode or Label */
+	private void grow (PathwayElement elt)
+	{
+		boardWidth = Math.max(boardWidth, elt.getMCenterX() + elt.getMWidth() / 2);
+		boardHeight = Math.max(boardHeight, elt.getMCenterY() + elt.getMHeight() / 2);
+	}
+	
+	/** write an element that goes directly below the root, on a line of its own */
+	private void write (Element elt, Writer out) throws IOException
+	{
+		// written inside the root, the element takes the GPML namespace from it
+		inherit (elt, elt.getNamespace());
+		String indent = outputter.getFormat().getIndent();
+		String newline = outputter.getFormat().getLineSeparator();
+		out.write(indent);
+		out.write(outputter.outputString(elt).replace(newline, newline + indent));
+		out.write(newline);
+	}
+	
+	/** take the elements in the given namespace out of it, so they don't declare it again */
+	private static void inherit (Element elt, Namespace ns)
+	{
+		if (elt.getNamespace().equals(ns)) elt.setNamespace(Namespace.NO_NAMESPACE);
+		for (Object child : elt.getChildren()) inherit ((Element)child, ns);
+	}
+	
+	/**
+	 * Write the GPML file, with all elements added so far. 
+	 * @param validate check the file against the GPML schema afterwards, like {@link Pathway#writeToXml(File, boolean)}
+	 * @throws ConverterException if an element could not be converted, the file could not be written,
+	 * 	or it is not valid
+	 */
+	public void finish(boolean validate) throws ConverterException
+	{
+		if (error != null) throw error;
+		
+		// the root and what goes before the elements, and what goes after them
+		Document doc = GpmlFormat.createJdom(header);
+		Element root = doc.getRootElement();
+		Element graphics = root.getChild("Graphics", root.getNamespace());
+		graphics.setAttribute("BoardWidth", "" + (boardWidth + BORDER_SIZE));
+		graphics.setAttribute("BoardHeight", "" + (boardHeight + BORDER_SIZE));
+		List<Element> after = new ArrayList<Element>();
+		List<?> children = root.getChildren();
+		for (int i = children.indexOf(graphics) + 1; i < children.size(); )
+		{
+			after.add ((Element)children.remove(i));
+		}
+		StringWriter head = new StringWriter();
+		try
+		{
+			outputter.output(doc, head);
+		}
+		catch (IOException e)
+		{
+			throw new ConverterException(e);
+		}
+		String start = head.toString();
+		int end = start.lastIndexOf("</" + root.getQualifiedName() + ">");
+		
+		try
+		{
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+			try
+			{
+				out.write(start, 0, end);
+				for (Spool spool : new Spool[] { dataNodes, labels, groups })
+				{
+					spool.out.close();
+					copy (spool.file, out);
+				}
+				for (Element elt : after) write (elt, out);
+				out.write(start, end, start.length() - end);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new ConverterException(e);
+		}
+		if (validate) validate (output);
+	}
+	
+	/** validate a written file against the GPML schema, reading it as a stream */
+	private static void validate (File file) throws ConverterException
+	{
+		InputStream xsd = Pathway.class.getClassLoader().getResourceAsStream(SCHEMA);
+		if (xsd == null) throw new ConverterException("Can't validate " + file + ", the schema " + SCHEMA + " is not on the classpath");
+		try
+		{
+			SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+			factory.newSchema(new StreamSource(xsd)).newValidator().validate(new StreamSource(file));
+		}
+		catch (SAXException e)
+		{
+			throw new ConverterException(e);
+		}
+		catch (IOException e)
+		{
+			throw new ConverterException(e);
+		}
+		finally
+		{
+			try { xsd.close(); } catch (IOException e) { /* ignore */ }
+		}
+	}
+	
+	private static void copy (File from, Writer to) throws IOException
+	{
+		Reader in = new InputStreamReader(new FileInputStream(from), "UTF-8");
+		try
+		{
+			char[] buf = new char[64 * 1024];
+			int read;
+			while ((read = in.read(buf)) > 0) to.write(buf, 0, read);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Remove the temporary files. 
+	 */
+	public void close()
+	{
+		dataNodes.delete();
+		labels.delete();
+		groups.delete();
+	}
+}
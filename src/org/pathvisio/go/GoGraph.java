@@ -0,0 +1,319 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact, immutable representation of the Gene Ontology is_a graph.
+ * <p>
+ * Terms are numbered 0 to size() - 1 in order of their GO accession number,
+ * which is the numeric part of the GO id (GO:0008020 -> 8020). Parent and child 
+ * edges are stored in compressed sparse row form: the parents of term i are 
+ * parents[parentStart[i]] up to parents[parentStart[i + 1]], and likewise for children.
+ * Names are the only per-term objects, and can be left out to save memory, 
+ * in which case they are read from the obo file on demand, like the other 
+ * {@link GoTermDetails}.
+ * <p>
+ * GoTerm objects are light-weight views on a term in this graph.
+ */
+public final class GoGraph
+{
+	private final int[] accessions;
+	private final String[] names;
+	private final byte[] namespaces;
+	private final GoStanzaIndex stanzas;
+	private final int[] parentStart;
+	private final int[] parents;
+	private final int[] childStart;
+	private final int[] children;
+	private final GoTerm[] views;
+	private GoClosure closure = null;
+	
+	/**
+	 * @param names the name of each term, or null to read names from the obo file on demand
+	 * @param stanzas to read term details from the obo file, or null if not available
+	 */
+	GoGraph(int[] accessions, String[] names, byte[] namespaces, GoStanzaIndex stanzas,
+			int[] parentStart, int[] parents, int[] childStart, int[] children)
+	{
+		this.accessions = accessions;
+		this.names = names;
+		this.namespaces = namespaces;
+		this.stanzas = stanzas;
+		this.parentStart = parentStart;
+		this.parents = parents;
+		this.childStart = childStart;
+		this.children = children;
+		this.views = new GoTerm[accessions.length];
+	}
+	
+	/**
+	 * Build a graph from the terms collected from one or more chunks of an obo file.
+	 * Is_a references to terms that are not in the collection, e.g. obsolete terms,
+	 * are dropped. If the same id occurs more than once, the first one is used.
+	 * @param obo the obo file the terms were collected from
+	 * @param length the length of the obo file at the time it was parsed
+	 * @param lastModified the modification time of the obo file at the time it was parsed
+	 * @param lazy if true, don't keep the names but read them from the obo file on demand
+	 */
+	static GoGraph build(List<GoTermCollector> collectors, File obo, long length, long lastModified, boolean lazy)
+	{
+		int total = 0;
+		for (GoTermCollector c : collectors) total += c.size();
+		
+		// sort by accession, keeping track of the original position in the low bits
+		long[] order = new long[total];
+		int[] collectorOf = new int[total];
+		int[] positionIn = new int[total];
+		int k = 0;
+		for (int ci = 0; ci < collectors.size(); ++ci)
+		{
+			GoTermCollector c = collectors.get(ci);
+			for (int j = 0; j < c.size(); ++j)
+			{
+				collectorOf[k] = ci;
+				positionIn[k] = j;
+				order[k] = ((long)c.getAccession(j) << 32) | k;
+				k++;
+			}
+		}
+		Arrays.sort(order);
+		
+		// drop duplicate accessions
+		int n = 0;
+		for (int i = 0; i < total; ++i)
+		{
+			if (n == 0 || (order[n - 1] >>> 32) != (order[i] >>> 32)) order[n++] = order[i];
+		}
+		
+		int[] accessions = new int[n];
+		String[] names = lazy ? null : new String[n];
+		byte[] namespaces = new byte[n];
+		int[] offsets = new int[n];
+		for (int i = 0; i < n; ++i)
+		{
+			accessions[i] = (int)(order[i] >>> 32);
+		}
+		
+		int[] parentStart = new int[n + 1];
+		IntList parents = new IntList(n * 2);
+		int[] childCount = new int[n];
+		for (int i = 0; i < n; ++i)
+		{
+			int src = (int)order[i];
+			GoTermCollector c = collectors.get(collectorOf[src]);
+			int j = positionIn[src];
+			if (names != null) names[i] = c.getName(j);
+			offsets[i] = c.getOffset(j);
+			GoNamespace ns = c.getNamespace(j);
+			namespaces[i] = ns == null ? -1 : (byte)ns.ordinal();
+			
+			parentStart[i] = parents.size();
+			for (int p = c.getParentStart(j); p < c.getParentStart(j + 1); ++p)
+			{
+				int parent = Arrays.binarySearch(accessions, c.getParentAccession(p));
+				if (parent >= 0 && parent != i)
+				{
+					parents.add(parent);
+					childCount[parent]++;
+				}
+			}
+		}
+		parentStart[n] = parents.size();
+		int[] parentArray = parents.toArray();
+		
+		int[] childStart = new int[n + 1];
+		for (int i = 0; i < n; ++i)
+		{
+			childStart[i + 1] = childStart[i] + childCount[i];
+		}
+		int[] childArray = new int[parentArray.length];
+		int[] fill = Arrays.copyOf(childStart, n);
+		// children end up in order of accession, because we go through the terms in that order
+		for (int i = 0; i < n; ++i)
+		{
+			for (int p = parentStart[i]; p < parentStart[i + 1]; ++p)
+			{
+				childArray[fill[parentArray[p]]++] = i;
+			}
+		}
+		
+		GoStanzaIndex stanzas = new GoStanzaIndex(obo, length, lastModified, offsets, GoStanzaIndex.DEFAULT_CACHE_SIZE);
+		return new GoGraph(accessions, names, namespaces, stanzas, parentStart, parentArray, childStart, childArray);
+	}
+	
+	/**
+	 * Convert a GO id to its accession number, e.g. "GO:0008020" -> 8020. Anything after 
+	 * the digits is ignored, so this also works on is_a values like "GO:0008150 ! biological_process".
+	 * @return the accession number, or -1 if the id doesn't start with "GO:" followed by a digit.
+	 */
+	public static int parseId (CharSequence id)
+	{
+		int len = id.length();
+		if (len < 4 || id.charAt(0) != 'G' || id.charAt(1) != 'O' || id.charAt(2) != ':') return -1;
+		int result = 0;
+		int i = 3;
+		for (; i < len; ++i)
+		{
+			char ch = id.charAt(i);
+			if (ch < '0' || ch > '9') break;
+			if (result > (Integer.MAX_VALUE - 9) / 10) return -1;
+			result = result * 10 + (ch - '0');
+		}
+		return i == 3 ? -1 : result;
+	}
+	
+	/**
+	 * Convert an accession number back to a GO id, e.g. 8020 -> "GO:0008020"
+	 */
+	public static String formatId (int accession)
+	{
+		String digits = Integer.toString(accession);
+		if (digits.length() >= 7) return "GO:" + digits;
+		char[] result = new char[10];
+		result[0] = 'G';
+		result[1] = 'O';
+		result[2] = ':';
+		int pad = 7 - digits.length();
+		Arrays.fill(result, 3, 3 + pad, '0');
+		digits.getChars(0, digits.length(), result, 3 + pad);
+		return new String(result);
+	}
+	
+	/** number of terms in the graph */
+	public int size() { return accessions.length; }
+	
+	/**
+	 * return the index of the term with the given accession number,
+	 * or a negative number if there is no such term.
+	 */
+	public int indexOf(int accession) 
+	{ 
+		return accession < 0 ? -1 : Arrays.binarySearch(accessions, accession); 
+	}
+	
+	public int getAccession(int term) { return accessions[term]; }
+	
+	public String getName(int term) 
+	{ 
+		if (names != null) return names[term];
+		GoTermDetails details = getDetails(term);
+		return details == null ? null : details.getName(); 
+	}
+	
+	/**
+	 * return the details of a term, as read from the obo file, or null if the obo file is not available.
+	 */
+	public GoTermDetails getDetails(int term)
+	{
+		return stanzas == null ? null : stanzas.get(term, accessions[term]);
+	}
+
+	
+	public GoNamespace getNamespace(int term) 
+	{ 
+		byte ns = namespaces[term];
+		return ns < 0 ? null : GoNamespace.values()[ns]; 
+	}
+	
+	public int getParentCount(int term) { return parentStart[term + 1] - parentStart[term]; }
+	/** return the index of the k-th parent of a term */
+	public int getParent(int term, int k) { return parents[parentStart[term] + k]; }
+	public int getChildCount(int term) { return childStart[term + 1] - childStart[term]; }
+	/** return the index of the k-th child of a term */
+	public int getChild(int term, int k) { return children[childStart[term] + k]; }
+	
+	/**
+	 * return the GoTerm view of the term with the given index. 
+	 */
+	public GoTerm getTerm(int term)
+	{
+		// racing threads may create two views of the same term, that's fine because
+		// GoTerm equality is based on graph and index.
+		GoTerm result = views[term];
+		if (result == null)
+		{
+			result = new GoTerm(this, term);
+			views[term] = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * return the transitive closure of this graph. 
+	 * It is computed the first time this is called.
+	 */
+	public synchronized GoClosure getClosure()
+	{
+		if (closure == null) closure = new GoClosure(this);
+		return closure;
+	}
+	
+	/**
+	 * Unmodifiable set view of all terms in the graph, in order of accession number.
+	 */
+	public Set<GoTerm> getTerms()
+	{
+		return new AbstractSet<GoTerm>() 
+		{
+			@Override
+			public Iterator<GoTerm> iterator()
+			{
+				return new Iterator<GoTerm>() 
+				{
+					private int next = 0;
+					public boolean hasNext() { return next < size(); }
+					public GoTerm next() 
+					{ 
+						if (next >= size()) throw new NoSuchElementException();
+						return getTerm(next++);
+					}
+					public void remove() { throw new UnsupportedOperationException(); }
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return accessions.length;
+			}
+			
+			@Override
+			public boolean contains(Object o)
+			{
+				return o instanceof GoTerm && ((GoTerm)o).getGraph() == GoGraph.this;
+			}
+		};
+	}
+	
+	// raw arrays, for GoSnapshot
+	int[] getAccessions() { return accessions; }
+	String[] getNames() { return names; }
+	GoStanzaIndex getStanzas() { return stanzas; }
+	byte[] getNamespaces() { return namespaces; }
+	int[] getParentStart() { return parentStart; }
+	int[] getParents() { return parents; }
+	int[] getChildStart() { return childStart; }
+	int[] getChildren() { return children; }
+}
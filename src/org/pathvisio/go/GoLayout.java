@@ -0,0 +1,501 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bridgedb.Xref;
+import org.pathvisio.core.model.DataNodeType;
+import org.pathvisio.core.model.GroupStyle;
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.PathwayElement;
+
+/**
+ * Lays out the pathway of a mapped GO subtree: a group with a label and a grid of genes 
+ * for each term, with the groups of its children below it, indented. A term that can 
+ * be reached through more than one path is laid out once for each path. Terms without 
+ * genes in their subtree are left out.
+ * <p>
+ * The layout is done in two passes, without recursion. The first pass computes the 
+ * height of the subtree below each term, bottom-up, once per term. Then the position 
+ * of every term is known up front, from its parent and the heights of the siblings before it.
+ * In the second pass the elements are made, and passed on in the same order as 
+ * a depth-first walk, i.e. each group followed by its label, its genes and the groups 
+ * of its children.
+ * <p>
+ * Large pathways that are built in memory are split into independent subtrees, 
+ * whose elements are made on a pool of threads, and put together in order at the end.
+ * All layouts share one pool with a thread per processor, so pathways that are made at 
+ * the same time don't each start their own.
+ * When streaming to file only the elements of the terms on the path to the current 
+ * one are kept in memory.
+ * <p>
+ * Terms can be given a link, e.g. to a separate pathway with their subtree, see {@link GoPages}. 
+ * Those terms are drawn as a single label with that link, without their genes and children, 
+ * unless they are at the top of the layout.
+ * <p>
+ * The layout reports its progress in elements, out of {@link #getElementCount(GoTerm)}, 
+ * and stops at the first term that would go over the element budget, see {@link GoProgress}.
+ */
+final class GoLayout
+{
+	/** pathways with more elements than this are made on more than one thread */
+	static final long PARALLEL_THRESHOLD = 50000;
+	
+	/** 
+	 * the number of genes on one row. A row is full when its width is at least the 
+	 * column width, found the same way as placing the genes. 
+	 */
+	static final int GENES_PER_ROW;
+	static
+	{
+		int count = 0;
+		double xco = 0;
+		do
+		{
+			xco += GoPathway.DATANODEWIDTH + GoPathway.MARGIN;
+			count++;
+		}
+		while (xco < GoPathway.COLWIDTH);
+		GENES_PER_ROW = count;
+	}
+	
+	private final GoSubtreeRefs refs;
+	private final GoGraph graph;
+	private final GoSymbolCache symbols;
+	/** height of the subtree below each term, by graph index */
+	private final double[] height;
+	/** number of elements in the subtree below each term, counting terms once per path */
+	private final long[] elements;
+	/** the link of each term, by graph index, or null if no term has a link */
+	private final String[] links;
+	/** number of elements added so far, by all calls to layout */
+	private long done = 0;
+	
+	/** height of a term that is drawn as a link */
+	private static final double LINK_HEIGHT = getGridHeight(0) + GoPathway.DATANODEHEIGHT;
+	/** number of elements of a term that is drawn as a link: a group and a label */
+	static final int LINK_ELEMENTS = 2;
+	
+	/**
+	 * Compute the height of every subtree, the first pass.
+	 */
+	GoLayout (GoSubtreeRefs refs, GoSymbolCache symbols)
+	{
+		this (refs, symbols, null);
+	}
+	
+	/**
+	 * Compute the height of every subtree, the first pass. 
+	 * The height of a term with a link is that of its whole subtree, but it takes up only
+	 * the height of a label in the subtree of its parents.
+	 * @param links the link of each term that is drawn as a link, or null for none.
+	 * 	Terms without genes in their subtree are left out, also when they have a link.
+	 * @param symbols the symbols of the genes, may be null if no elements are made
+	 */
+	GoLayout (GoSubtreeRefs refs, GoSymbolCache symbols, Map<GoTerm, String> links)
+	{
+		this.refs = refs;
+		this.symbols = symbols;
+		graph = refs.getBase().getGraph();
+		height = new double[graph.size()];
+		elements = new long[graph.size()];
+		if (links == null || links.isEmpty())
+		{
+			this.links = null;
+		}
+		else
+		{
+			this.links = new String[graph.size()];
+			for (Map.Entry<GoTerm, String> e : links.entrySet())
+			{
+				this.links[e.getKey().getIndex()] = e.getValue();
+			}
+		}
+		
+		// children first
+		for (int k = refs.size() - 1; k >= 0; --k)
+		{
+			int term = refs.getTerm(k);
+			GoTerm goTerm = graph.getTerm(term);
+			if (refs.getRefsRecursive(goTerm).isEmpty()) continue;
+			
+			int genes = refs.getRefs(goTerm).size();
+			double h = getGridHeight(genes);
+			long count = 2 + genes;
+			for (int c = 0; c < graph.getChildCount(term); ++c)
+			{
+				int child = graph.getChild(term, c);
+				if (isLink(child))
+				{
+					h += LINK_HEIGHT;
+					count += LINK_ELEMENTS;
+				}
+				else
+				{
+					h += height[child];
+					count += elements[child];
+				}
+			}
+			height[term] = h + GoPathway.DATANODEHEIGHT;
+			elements[term] = count;
+		}
+	}
+	
+	/**
+	 * return the height of the label and genes of a term, up to where its first child starts.
+	 */
+	private static double getGridHeight (int genes)
+	{
+		double result = GoPathway.LABELHEIGHT + GoPathway.MARGIN + (genes / GENES_PER_ROW) * GoPathway.DATANODEHEIGHT;
+		if (genes > 0) result += GoPathway.DATANODEHEIGHT * 2;
+		return result;
+	}
+	
+	/** return true if a term with genes in its subtree is drawn as a link */
+	private boolean isLink (int term)
+	{
+		return links != null && links[term] != null && height[term] != 0;
+	}
+	
+	/** return the height of the subtree below a term, 0 if it has no genes */
+	double getHeight (GoTerm term)
+	{
+		return height[term.getIndex()];
+	}
+	
+	/** 
+	 * return the number of elements in the pathway of the subtree below a term,
+	 * with the subtrees of terms that have a link left out.
+	 */
+	long getElementCount (GoTerm term)
+	{
+		return elements[term.getIndex()];
+	}
+	
+	/** a term to lay out, at a known position */
+	private static final class Frame
+	{
+		final int term;
+		final double left;
+		final double top;
+		final Block parent;
+		
+		Frame (int term, double left, double top, Block parent)
+		{
+			this.term = term;
+			this.left = left;
+			this.top = top;
+			this.parent = parent;
+		}
+	}
+	
+	/** 
+	 * The elements of one term. The group id is only known once the group has been added, 
+	 * at which point the other elements are dropped. 
+	 */
+	private static final class Block
+	{
+		final GoTerm term;
+		final Block parent;
+		PathwayElement group;
+		PathwayElement label;
+		List<PathwayElement> genes;
+		String groupId;
+		
+		Block (GoTerm term, Block parent)
+		{
+			this.term = term;
+			this.parent = parent;
+		}
+	}
+	
+	/**
+	 * Make the elements of the whole subtree, and add them to out, the second pass.
+	 * @return the bottom of the subtree
+	 */
+	double layout (GoPathway.ElementSink out, double left, double top, GoProgress progress)
+	{
+		return layout (out, refs.getBase(), left, top, progress, 1);
+	}
+	
+	/**
+	 * Make the elements of the subtree below base, and add them to out, the second pass.
+	 * If there are more than {@link #PARALLEL_THRESHOLD} elements and threads is more than 1, 
+	 * they are split into parts for that many threads, which are made on the pool shared by all 
+	 * layouts. All elements are then kept in memory until they are added, so this is only 
+	 * useful when out keeps them anyway.
+	 * @param base a term of the subtree the layout was made for
+	 * @param progress the progress of the layout stage, which the caller has started
+	 * @param threads the number of threads to use, 1 to make the elements on the calling thread
+	 * @return the bottom of the subtree
+	 * @throws GoCancelledException if progress is stopped. The elements of the terms 
+	 * 	before the one that was being laid out have been added.
+	 */
+	double layout (GoPathway.ElementSink out, GoTerm base, double left, double top, GoProgress progress, int threads)
+	{
+		Frame root = new Frame (base.getIndex(), left, top, null);
+		if (threads > 1 && elements[root.term] > PARALLEL_THRESHOLD)
+		{
+			layoutParallel (out, root, progress, threads);
+		}
+		else
+		{
+			List<Frame> stack = new ArrayList<Frame>();
+			stack.add (root);
+			while (!stack.isEmpty())
+			{
+				Frame frame = stack.remove(stack.size() - 1);
+				add (out, makeBlock (frame, stack, progress), progress);
+			}
+		}
+		return top + height[root.term];
+	}
+	
+	/**
+	 * Make the elements of a term, and push the frames of its children on the stack,
+	 * the first child last.
+	 */
+	private Block makeBlock (Frame frame, List<Frame> stack, GoProgress progress)
+	{
+		progress.checkpoint();
+		GoTerm term = graph.getTerm(frame.term);
+		Block block = new Block(term, frame.parent);
+		if (height[frame.term] == 0) return block;
+		
+		double left = frame.left;
+		double top = frame.top;
+		Set<Xref> genes = refs.getRefs(term);
+		
+		block.group = PathwayElement.createPathwayElement(ObjectType.GROUP);
+		block.group.setGroupStyle(GroupStyle.COMPLEX);
+		block.group.setTextLabel(term.getId());
+		
+		block.label = PathwayElement.createPathwayElement(ObjectType.LABEL);
+		block.label.setMCenterX(left + GoPathway.LABELWIDTH / 2);
+		block.label.setMCenterY(top + GoPathway.LABELHEIGHT / 2);
+		block.label.setMWidth(GoPathway.LABELWIDTH);
+		block.label.setMHeight(GoPathway.LABELHEIGHT);		
+		block.label.setTextLabel(term.getId() + " " + term.getName());
+		
+		if (frame.parent != null && isLink(frame.term))
+		{
+			block.label.setTextLabel(term.getId() + " " + term.getName() + " (continued on a separate page)");
+			block.label.setHref(links[frame.term]);
+			block.genes = Collections.emptyList();
+			return block;
+		}
+		
+		top += GoPathway.LABELHEIGHT + GoPathway.MARGIN;
+		
+		double xco = 0;
+		double yco = 0;
+		block.genes = new ArrayList<PathwayElement>(genes.size());
+		for (Xref ref : genes)
+		{
+			PathwayElement pelt = PathwayElement.createPathwayElement(ObjectType.DATANODE);
+			pelt.setMCenterX(left + xco + GoPathway.DATANODEWIDTH / 2);
+			pelt.setMCenterY(top + yco + GoPathway.DATANODEHEIGHT / 2);
+			pelt.setMWidth(GoPathway.DATANODEWIDTH);
+			pelt.setMHeight(GoPathway.DATANODEHEIGHT);
+			pelt.setDataSource(ref.getDataSource());
+			pelt.setElementID(ref.getId());
+			pelt.setDataNodeType(DataNodeType.GENEPRODUCT);
+			pelt.setTextLabel(symbols.getSymbol(ref));
+			block.genes.add (pelt);
+			
+			xco += GoPathway.DATANODEWIDTH + GoPathway.MARGIN;
+			if (xco >= GoPathway.COLWIDTH)
+			{
+				xco = 0;
+				yco += GoPathway.DATANODEHEIGHT;
+			}
+		}
+		
+		double childTop = frame.top + getGridHeight(genes.size());
+		int first = stack.size();
+		for (int c = 0; c < graph.getChildCount(frame.term); ++c)
+		{
+			int child = graph.getChild(frame.term, c);
+			boolean link = isLink(child);
+			if (height[child] == 0 && !link) continue;
+			// a linked child is made into a single label by its own frame, see above
+			stack.add (new Frame (child, left + GoPathway.INDENT, childTop, block));
+			childTop += link ? LINK_HEIGHT : height[child];
+		}
+		Collections.reverse(stack.subList(first, stack.size()));
+		return block;
+	}
+	
+	/**
+	 * Add the elements of a term, after the elements of its parent.
+	 */
+	private void add (GoPathway.ElementSink out, Block block, GoProgress progress)
+	{
+		if (block.group == null) return;
+		int count = 2 + block.genes.size();
+		progress.addElements(count);
+		progress.getProgressKeeper().setTaskName("Go term: " + block.term.getName());
+		
+		if (block.parent != null) block.group.setGroupRef(block.parent.groupId);
+		out.add (block.group);
+		block.groupId = block.group.createGroupId();
+		
+		block.label.setGroupRef(block.groupId);
+		out.add (block.label);
+		
+		for (PathwayElement pelt : block.genes)
+		{
+			pelt.setGroupRef (block.groupId);
+			out.add (pelt);
+		}
+		done += count;
+		progress.setDone(done);
+		
+		// only the group id is needed from now on, for the children
+		block.group = null;
+		block.label = null;
+		block.genes = null;
+	}
+	
+	/**
+	 * Split the subtree into parts of about the same size, make the elements of each part
+	 * on a pool of threads, and add all of them in order.
+	 */
+	private void layoutParallel (GoPathway.ElementSink out, Frame root, final GoProgress progress, int threads)
+	{
+		// the terms above the parts are done on this thread. The sequence holds those blocks, 
+		// and the frames at the top of each part, in the order their elements are added.
+		List<Object> sequence = new ArrayList<Object>();
+		sequence.add (root);
+		long target = elements[root.term] / (threads * 4);
+		boolean split = true;
+		while (split)
+		{
+			split = false;
+			for (int i = 0; i < sequence.size(); ++i)
+			{
+				Object item = sequence.get(i);
+				if (item instanceof Frame && elements[((Frame)item).term] > target)
+				{
+					List<Frame> children = new ArrayList<Frame>();
+					Block block = makeBlock ((Frame)item, children, progress);
+					Collections.reverse(children);
+					sequence.set(i, block);
+					sequence.addAll(i + 1, children);
+					split = true;
+				}
+			}
+		}
+		
+		ExecutorService executor = getExecutor();
+		List<Object> futures = new ArrayList<Object>();
+		try
+		{
+			for (Object item : sequence)
+			{
+				if (item instanceof Block)
+				{
+					futures.add (item);
+					continue;
+				}
+				final Frame part = (Frame)item;
+				futures.add (executor.submit(new Callable<List<Block>>() {
+					public List<Block> call()
+					{
+						List<Block> result = new ArrayList<Block>();
+						List<Frame> stack = new ArrayList<Frame>();
+						stack.add (part);
+						while (!stack.isEmpty())
+						{
+							result.add (makeBlock (stack.remove(stack.size() - 1), stack, progress));
+						}
+						return result;
+					}
+				}));
+			}
+			
+			for (Object item : futures)
+			{
+				if (item instanceof Block)
+				{
+					add (out, (Block)item, progress);
+					continue;
+				}
+				@SuppressWarnings("unchecked")
+				Future<List<Block>> future = (Future<List<Block>>)item;
+				for (Block block : future.get())
+				{
+					add (out, block, progress);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while laying out " + refs.getBase().getId(), e);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+		finally
+		{
+			// stop the parts that are not done after a failure or cancel
+			for (Object item : futures)
+			{
+				if (item instanceof Future<?>) ((Future<?>)item).cancel(true);
+			}
+		}
+	}
+	
+	private static ExecutorService sharedExecutor = null;
+	
+	/** return the pool shared by all layouts. Its threads stop when they have been idle for a while. */
+	private static synchronized ExecutorService getExecutor()
+	{
+		if (sharedExecutor == null)
+		{
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r)
+				{
+					Thread result = new Thread(r, "GO layout");
+					result.setDaemon(true);
+					return result;
+				}
+			});
+			pool.allowCoreThreadTimeOut(true);
+			sharedExecutor = pool;
+		}
+		return sharedExecutor;
+	}
+}
@@ -16,7 +16,12 @@
 //
 package org.pathvisio.go;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.bridgedb.DataSource;
@@ -42,18 +47,123 @@ public abstract class GoMap
 	
 	/**
 	 * Helper function to recursively extract genes from a mapper.
+	 * Every descendant of the term is looked up once, also when it can be reached
+	 * through more than one path, and the lookups are done in batches.
 	 */
 	public static Set<Xref> getRefsRecursive(GoTerm term, IDMapper mapper, DataSource dest) throws IDMapperException
 	{
 		Set<Xref> result = new HashSet<Xref>();
-		for (GoTerm child : term.getChildren())
+		for (Set<Xref> refs : getSubtreeRefs(Collections.singleton(term), mapper, dest).values())
 		{
-			result.addAll(getRefsRecursive(child, mapper, dest));
+			result.addAll(refs);
 		}
-		result.addAll (getRefs (term, mapper, dest));
 		Logger.log.info (term.getName() + " has " + result.size() + " ids");
 		
 		return result;
 	}
 
+	/** maximum number of GO ids passed to the mapper in a single call */
+	public static final int BATCH_SIZE = 500;
+	
+	/**
+	 * Extract the genes of many terms from a mapper, using the collection based
+	 * {@link IDMapper#mapID(Collection, DataSource...)} in batches of at most 
+	 * {@link #BATCH_SIZE} terms, instead of one call per term.
+	 * @return the genes for each term. Each term in the input is a key, 
+	 * 	terms without genes are mapped to an empty set.
+	 */
+	public static Map<GoTerm, Set<Xref>> getRefs(Collection<GoTerm> terms, IDMapper mapper, DataSource dest) throws IDMapperException
+	{
+		return getRefs(terms, mapper, dest, null);
+	}
+	
+	/**
+	 * Like {@link #getRefs(Collection, IDMapper, DataSource)}, but terms that are in the 
+	 * cache are not looked up, and the terms that are looked up are added to the cache.
+	 * @param cache the cache for this mapper and DataSource, or null to not use a cache
+	 */
+	public static Map<GoTerm, Set<Xref>> getRefs(Collection<GoTerm> terms, IDMapper mapper, DataSource dest, GoMappingCache cache) throws IDMapperException
+	{
+		return getRefs(terms, mapper, dest, cache, null);
+	}
+	
+	/**
+	 * Like {@link #getRefs(Collection, IDMapper, DataSource, GoMappingCache)}, reporting 
+	 * the number of terms done to progress after each batch.
+	 * @param progress the progress of the current stage, or null
+	 * @throws GoCancelledException if progress is stopped
+	 */
+	public static Map<GoTerm, Set<Xref>> getRefs(Collection<GoTerm> terms, IDMapper mapper, DataSource dest, GoMappingCache cache, GoProgress progress) throws IDMapperException
+	{
+		Map<GoTerm, Set<Xref>> result = new HashMap<GoTerm, Set<Xref>>();
+		Map<Xref, GoTerm> batch = new HashMap<Xref, GoTerm>();
+		int done = 0;
+		for (GoTerm term : terms)
+		{
+			done++;
+			Set<Xref> cached = cache == null ? null : cache.get(term);
+			if (cached != null)
+			{
+				result.put (term, cached);
+				continue;
+			}
+			batch.put (new Xref (term.getId(), BioDataSource.GENE_ONTOLOGY), term);
+			if (batch.size() == BATCH_SIZE)
+			{
+				if (progress != null) progress.checkpoint();
+				mapBatch (batch, mapper, dest, result, cache);
+				batch.clear();
+				if (progress != null) progress.setDone(done);
+			}
+		}
+		if (progress != null) progress.checkpoint();
+		if (!batch.isEmpty()) mapBatch (batch, mapper, dest, result, cache);
+		return result;
+	}
+	
+	private static void mapBatch (Map<Xref, GoTerm> batch, IDMapper mapper, DataSource dest, Map<GoTerm, Set<Xref>> result, GoMappingCache cache) throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> mapped = mapper.mapID(batch.keySet(), dest);
+		for (Map.Entry<Xref, GoTerm> e : batch.entrySet())
+		{
+			Set<Xref> refs = mapped.get(e.getKey());
+			if (refs == null) refs = Collections.emptySet();
+			result.put (e.getValue(), refs);
+			if (cache != null) cache.put (e.getValue(), refs);
+		}
+	}
+	
+	/**
+	 * Extract the genes of the given terms and all their descendants from a mapper, in batches.
+	 * Terms that occur in more than one subtree are looked up only once.
+	 * @return the genes for each term in the subtrees, including the roots themselves.
+	 */
+	public static Map<GoTerm, Set<Xref>> getSubtreeRefs(Collection<GoTerm> roots, IDMapper mapper, DataSource dest) throws IDMapperException
+	{
+		return getSubtreeRefs(roots, mapper, dest, null);
+	}
+	
+	/**
+	 * Like {@link #getSubtreeRefs(Collection, IDMapper, DataSource)}, using a cache.
+	 * @param cache the cache for this mapper and DataSource, or null to not use a cache
+	 */
+	public static Map<GoTerm, Set<Xref>> getSubtreeRefs(Collection<GoTerm> roots, IDMapper mapper, DataSource dest, GoMappingCache cache) throws IDMapperException
+	{
+		return getSubtreeRefs(roots, mapper, dest, cache, null);
+	}
+	
+	/**
+	 * Like {@link #getSubtreeRefs(Collection, IDMapper, DataSource, GoMappingCache)}, reporting 
+	 * progress, see {@link #getRefs(Collection, IDMapper, DataSource, GoMappingCache, GoProgress)}.
+	 */
+	public static Map<GoTerm, Set<Xref>> getSubtreeRefs(Collection<GoTerm> roots, IDMapper mapper, DataSource dest, GoMappingCache cache, GoProgress progress) throws IDMapperException
+	{
+		Set<GoTerm> terms = new LinkedHashSet<GoTerm>();
+		for (GoTerm root : roots)
+		{
+			terms.add(root);
+			terms.addAll(root.getGraph().getClosure().getDescendants(root));
+		}
+		return getRefs(terms, mapper, dest, cache, progress);
+	}
 }
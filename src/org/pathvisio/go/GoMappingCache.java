@@ -0,0 +1,334 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperStack;
+import org.bridgedb.Xref;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.preferences.GlobalPreference;
+
+/**
+ * Cache of GO to gene mappings that is kept across sessions, so that the gene database 
+ * doesn't have to be queried again for terms that were mapped before.
+ * <p>
+ * There is one cache per gene database, target DataSource and ontology release. Recently used 
+ * mappings are kept in memory, up to {@link #MEMORY_ENTRIES} terms. All mappings are also appended 
+ * to a file in the PathVisio application directory, together with an index of where each 
+ * term is in that file. The file is named after a digest of the identity of the gene database, 
+ * the target DataSource and the release of the ontology, and starts with all three. 
+ * A file with a header that doesn't match is cleared.
+ * <p>
+ * Use {@link #open(String, DataSource, String)} to get a cache, and pass it to
+ * {@link GoMap#getRefs(java.util.Collection, IDMapper, DataSource, GoMappingCache)}.
+ */
+public final class GoMappingCache
+{
+	/** maximum number of terms kept in memory */
+	public static final int MEMORY_ENTRIES = 20000;
+	
+	private static final int MAGIC = 0x474F4D43; // "GOMC"
+	private static final int VERSION = 1;
+	
+	private static final Map<String, GoMappingCache> open = new HashMap<String, GoMappingCache>();
+	/** the files of the open caches, so that two caches never share a file */
+	private static final Set<File> openFiles = new HashSet<File>();
+	
+	private final DataSource dest;
+	private final File file;
+	private RandomAccessFile raf;
+	/** position in the file of the record for each accession number */
+	private final Map<Integer, Long> index = new HashMap<Integer, Long>();
+	private final Map<Integer, Set<Xref>> memory = new LinkedHashMap<Integer, Set<Xref>>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Set<Xref>> eldest)
+		{
+			return size() > MEMORY_ENTRIES;
+		}
+	};
+	
+	/**
+	 * Get the cache for a gene database, target DataSource and ontology release.
+	 * Caches are shared within the process.
+	 * @param gdbIdentity a string that changes whenever the gene database changes, 
+	 * 	see {@link #identify(IDMapper)} and {@link #identify(File)}
+	 * @param ontologyVersion the release of the ontology, see {@link GoReader#getVersion()}
+	 */
+	public static GoMappingCache open (String gdbIdentity, DataSource dest, String ontologyVersion)
+	{
+		String key = gdbIdentity + "\n" + dest.getFullName() + "\n" + ontologyVersion;
+		synchronized (open)
+		{
+			GoMappingCache result = open.get(key);
+			if (result == null)
+			{
+				result = new GoMappingCache(gdbIdentity, dest, ontologyVersion, key);
+				open.put(key, result);
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Close all caches. Caches opened afterwards are read from file again.
+	 */
+	public static void closeAll()
+	{
+		synchronized (open)
+		{
+			for (GoMappingCache cache : open.values())
+			{
+				cache.close();
+			}
+			open.clear();
+			openFiles.clear();
+		}
+	}
+	
+	/**
+	 * Identify a gene database by its file, using the path, size and modification time.
+	 */
+	public static String identify (File gdb)
+	{
+		return gdb.getAbsolutePath() + ";" + gdb.length() + ";" + gdb.lastModified();
+	}
+	
+	/**
+	 * Identify a gene database by the properties of the mapper, such as the build date 
+	 * and data source version stored in a pgdb. An IDMapperStack is identified by 
+	 * all the mappers it contains. 
+	 * @return the identity, or null if the mapper has no properties to go by, in which 
+	 * 	case it can't be cached.
+	 */
+	public static String identify (IDMapper mapper)
+	{
+		if (mapper instanceof IDMapperStack)
+		{
+			IDMapperStack stack = (IDMapperStack)mapper;
+			if (stack.getSize() == 0) return null;
+			StringBuilder result = new StringBuilder();
+			for (int i = 0; i < stack.getSize(); ++i)
+			{
+				String part = identify(stack.getIDMapperAt(i));
+				if (part == null) return null;
+				result.append("[").append(part).append("]");
+			}
+			return result.toString();
+		}
+		
+		IDMapperCapabilities caps = mapper.getCapabilities();
+		if (caps == null || caps.getKeys() == null || caps.getKeys().isEmpty()) return null;
+		StringBuilder result = new StringBuilder(mapper.getClass().getName());
+		for (String key : new TreeSet<String>(caps.getKeys()))
+		{
+			result.append(";").append(key).append("=").append(caps.getProperty(key));
+		}
+		return result.toString();
+	}
+	
+	/** called with the lock on open */
+	private GoMappingCache (String gdbIdentity, DataSource dest, String ontologyVersion, String key)
+	{
+		this.dest = dest;
+		File dir = new File (GlobalPreference.getApplicationDir(), "go-mapping-cache");
+		// one file per gene database, target DataSource and ontology release
+		file = new File (dir, "gdb-" + sha1(key) + ".cache");
+		if (!openFiles.add(file))
+		{
+			Logger.log.warn ("GO mapping cache " + file + " is in use by another cache, only caching in memory");
+			return;
+		}
+		try
+		{
+			if (!dir.exists() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+			raf = new RandomAccessFile(file, "rw");
+			if (!readHeader(gdbIdentity, ontologyVersion))
+			{
+				raf.setLength(0);
+				raf.writeInt(MAGIC);
+				raf.writeInt(VERSION);
+				raf.writeUTF(gdbIdentity);
+				raf.writeUTF(dest.getFullName());
+				raf.writeUTF(ontologyVersion);
+			}
+			else
+			{
+				readIndex();
+			}
+		}
+		catch (IOException e)
+		{
+			Logger.log.warn ("GO mapping cache " + file + " not available, only caching in memory", e);
+			close();
+		}
+	}
+	
+	/** return the SHA-1 digest of a string, in hexadecimal */
+	private static String sha1 (String s)
+	{
+		try
+		{
+			StringBuilder result = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8")))
+			{
+				result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return result.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e); // every JRE has SHA-1
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e); // every JRE has UTF-8
+		}
+	}
+	
+	/** return true if the file has a header that matches */
+	private boolean readHeader (String gdbIdentity, String ontologyVersion) throws IOException
+	{
+		if (raf.length() < 8) return false;
+		raf.seek(0);
+		try
+		{
+			return raf.readInt() == MAGIC && raf.readInt() == VERSION 
+				&& raf.readUTF().equals(gdbIdentity) && raf.readUTF().equals(dest.getFullName())
+				&& raf.readUTF().equals(ontologyVersion);
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	/** 
+	 * Read the position of each record. A partially written record at the end, 
+	 * e.g. from a crash, is cut off.
+	 */
+	private void readIndex() throws IOException
+	{
+		long pos = raf.getFilePointer();
+		long length = raf.length();
+		while (pos + 8 <= length)
+		{
+			raf.seek(pos);
+			int accession = raf.readInt();
+			int size = raf.readInt();
+			if (size < 0 || pos + 8 + size > length) break;
+			index.put(accession, pos);
+			pos += 8 + size;
+		}
+		if (pos < length) raf.setLength(pos);
+	}
+	
+	/**
+	 * return the genes cached for the given term, or null if the term is not in the cache.
+	 */
+	public synchronized Set<Xref> get (GoTerm term)
+	{
+		int accession = term.getAccession();
+		Set<Xref> result = memory.get(accession);
+		if (result != null) return result;
+		
+		Long pos = index.get(accession);
+		if (pos == null || raf == null) return null;
+		try
+		{
+			raf.seek(pos + 4);
+			byte[] data = new byte[raf.readInt()];
+			raf.readFully(data);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			int count = in.readInt();
+			Set<Xref> refs = new LinkedHashSet<Xref>();
+			for (int i = 0; i < count; ++i)
+			{
+				refs.add(new Xref(in.readUTF(), dest));
+			}
+			result = Collections.unmodifiableSet(refs);
+			memory.put(accession, result);
+			return result;
+		}
+		catch (IOException e)
+		{
+			Logger.log.warn ("Could not read from GO mapping cache " + file, e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Add the genes for a term to the cache.
+	 */
+	public synchronized void put (GoTerm term, Set<Xref> refs)
+	{
+		int accession = term.getAccession();
+		if (memory.containsKey(accession) || index.containsKey(accession)) return;
+		memory.put(accession, Collections.unmodifiableSet(new LinkedHashSet<Xref>(refs)));
+		if (raf == null) return;
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(refs.size());
+			for (Xref ref : refs)
+			{
+				out.writeUTF(ref.getId());
+			}
+			out.close();
+			
+			long pos = raf.length();
+			raf.seek(pos);
+			raf.writeInt(accession);
+			raf.writeInt(bytes.size());
+			raf.write(bytes.toByteArray());
+			index.put(accession, pos);
+		}
+		catch (IOException e)
+		{
+			Logger.log.warn ("Could not write to GO mapping cache " + file + ", only caching in memory", e);
+			close();
+		}
+	}
+	
+	private synchronized void close()
+	{
+		if (raf != null) try { raf.close(); } catch (IOException e) { /* ignore */ }
+		raf = null;
+	}
+}
@@ -0,0 +1,55 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+/**
+ * The three namespaces, or sub-ontologies, of the Gene Ontology.
+ */
+public enum GoNamespace
+{
+	BIOLOGICAL_PROCESS ("biological_process"),
+	MOLECULAR_FUNCTION ("molecular_function"),
+	CELLULAR_COMPONENT ("cellular_component");
+	
+	private final String name;
+	
+	GoNamespace (String name) { this.name = name; }
+	
+	/**
+	 * return the name of the namespace as used in obo files, e.g. "biological_process"
+	 */
+	public String getName() { return name; }
+	
+	/**
+	 * Look up a namespace by the name used in obo files.
+	 * @return the namespace, or null if the name is not one of the three GO namespaces.
+	 */
+	public static GoNamespace fromName (String name)
+	{
+		for (GoNamespace ns : values())
+		{
+			if (ns.name.equals(name)) return ns;
+		}
+		return null;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,260 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.Xref;
+
+/**
+ * Splits the pathway of a large GO term into pages that each fit within a budget, 
+ * so that no single pathway becomes too big to show.
+ * <p>
+ * The size of each page is known from the mapped genes before any element is made, 
+ * see {@link GoLayout#getElementCount(GoTerm)}. While the page of a term is over budget, 
+ * its largest child is moved off the page, and drawn as a label that links to where it went. 
+ * Children that are small enough share a page, otherwise they get a page of their own, 
+ * which is split in turn. Each page after the first links back to the page of the 
+ * term it was split off from.
+ * <p>
+ * All pages go in one directory. The links are absolute file URLs, so that they work 
+ * wherever the page they are on is opened from.
+ * <p>
+ * A single term with more genes than the budget still gets one page.
+ */
+public final class GoPages
+{
+	/** default maximum number of elements on one page */
+	public static final long DEFAULT_BUDGET = 20000;
+	
+	private final GoSubtreeRefs refs;
+	private final File dir;
+	private final String fileName;
+	private final List<Page> pages = new ArrayList<Page>();
+	/** the page of each term that has been moved off the page of its parent */
+	private final Map<GoTerm, Page> pageOf = new HashMap<GoTerm, Page>();
+	private final Map<GoTerm, String> links = new HashMap<GoTerm, String>();
+	
+	private static class Page
+	{
+		/** the term the page was split off from, or null for the first page */
+		final GoTerm parent;
+		final List<GoTerm> terms = new ArrayList<GoTerm>();
+		long size = 0;
+		String fileName;
+		
+		Page (GoTerm parent)
+		{
+			this.parent = parent;
+		}
+	}
+	
+	/**
+	 * Plan the pages for a mapped subtree.
+	 * @param file the file of the first page. The other pages go in the same directory, and are named after it.
+	 * @param budget the maximum number of elements on a page
+	 */
+	public GoPages (GoSubtreeRefs refs, File file, long budget)
+	{
+		this.refs = refs;
+		this.dir = file.getAbsoluteFile().getParentFile();
+		this.fileName = file.getName();
+		Page first = new Page(null);
+		first.terms.add(refs.getBase());
+		pages.add(first);
+		
+		for (int i = 0; i < pages.size(); ++i)
+		{
+			// pages with more than one term fit by construction
+			Page page = pages.get(i);
+			if (page.terms.size() == 1) split (page.terms.get(0), budget);
+		}
+		
+		for (int i = 0; i < pages.size(); ++i)
+		{
+			Page page = pages.get(i);
+			page.fileName = i == 0 ? fileName : makeFileName(i);
+			for (GoTerm term : page.terms)
+			{
+				if (i > 0) links.put(term, toLink(page.fileName));
+			}
+		}
+	}
+	
+	/**
+	 * Move children of a term to other pages, until its own page is within the budget.
+	 */
+	private void split (GoTerm term, long budget)
+	{
+		// the sizes change with every page that is split off, also in other parts of the subtree
+		final GoLayout layout = new GoLayout(refs, null, links);
+		long size = layout.getElementCount(term);
+		if (size <= budget) return;
+		
+		List<GoTerm> children = new ArrayList<GoTerm>();
+		for (GoTerm child : term.getChildren())
+		{
+			if (layout.getHeight(child) > 0 && !pageOf.containsKey(child)) children.add(child);
+		}
+		Collections.sort(children, new Comparator<GoTerm>() 
+		{
+			public int compare(GoTerm a, GoTerm b)
+			{
+				long sa = layout.getElementCount(a);
+				long sb = layout.getElementCount(b);
+				return sa > sb ? -1 : sa < sb ? 1 : 0; 
+			}
+		});
+		
+		// largest first, into the first page with room, or a new one
+		List<Page> added = new ArrayList<Page>();
+		for (GoTerm child : children)
+		{
+			if (size <= budget) break;
+			long childSize = layout.getElementCount(child);
+			size -= childSize - GoLayout.LINK_ELEMENTS;
+			
+			Page target = null;
+			if (childSize <= budget)
+			{
+				for (Page page : added)
+				{
+					if (page.size + childSize <= budget)
+					{
+						target = page;
+						break;
+					}
+				}
+			}
+			if (target == null)
+			{
+				target = new Page(term);
+				added.add(target);
+			}
+			target.terms.add(child);
+			target.size += childSize;
+			pageOf.put(child, target);
+			// mark as moved, the link itself is set once all pages are known
+			links.put(child, "");
+		}
+		pages.addAll(added);
+	}
+	
+	private String makeFileName (int page)
+	{
+		String base = fileName.endsWith(".gpml") ? fileName.substring(0, fileName.length() - 5) : fileName;
+		return base + " - page " + (page + 1) + ".gpml";
+	}
+	
+	/** return the subtree that the pages are made from */
+	public GoSubtreeRefs getRefs()
+	{
+		return refs;
+	}
+	
+	/** return the number of pages */
+	public int size()
+	{
+		return pages.size();
+	}
+	
+	/** return the terms that are on a page, one below the other, with their subtrees */
+	public List<GoTerm> getTerms (int page)
+	{
+		return Collections.unmodifiableList(pages.get(page).terms);
+	}
+	
+	/** return the file name of a page */
+	public String getFileName (int page)
+	{
+		return pages.get(page).fileName;
+	}
+	
+	/** return the file to write a page to */
+	public File getFile (int page)
+	{
+		return new File (dir, getFileName(page));
+	}
+	
+	private String toLink (String name)
+	{
+		return new File (dir, name).toURI().toString();
+	}
+	
+	/**
+	 * return the genes that are on a page, i.e. of the terms in the subtrees of its terms, 
+	 * except those that are moved to other pages.
+	 */
+	public Set<Xref> getGenes (int page)
+	{
+		GoGraph graph = refs.getBase().getGraph();
+		Set<Xref> result = new HashSet<Xref>();
+		BitSet seen = new BitSet(graph.size());
+		IntList todo = new IntList();
+		for (GoTerm term : pages.get(page).terms)
+		{
+			todo.add(term.getIndex());
+			seen.set(term.getIndex());
+		}
+		while (todo.size() > 0)
+		{
+			int term = todo.get(todo.size() - 1);
+			todo.truncate(todo.size() - 1);
+			result.addAll(refs.getRefs(graph.getTerm(term)));
+			for (int k = 0; k < graph.getChildCount(term); ++k)
+			{
+				int child = graph.getChild(term, k);
+				if (seen.get(child) || links.containsKey(graph.getTerm(child))) continue;
+				seen.set(child);
+				todo.add(child);
+			}
+		}
+		return result;
+	}
+	
+	/** return the term that a page was split off from, or null for the first page */
+	public GoTerm getParent (int page)
+	{
+		return pages.get(page).parent;
+	}
+	
+	/** return the link to the page that a term is at the top of, a file URL */
+	public String getLink (GoTerm term)
+	{
+		if (term.equals(refs.getBase())) return toLink(fileName);
+		Page page = pageOf.get(term);
+		return page == null ? null : toLink(page.fileName);
+	}
+	
+	/**
+	 * return the link of each term that was moved to another page, 
+	 * to pass to {@link GoLayout#GoLayout(GoSubtreeRefs, GoSymbolCache, Map)}.
+	 */
+	Map<GoTerm, String> getLinks()
+	{
+		return Collections.unmodifiableMap(links);
+	}
+}
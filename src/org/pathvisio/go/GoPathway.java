@@ -17,24 +17,26 @@
 package org.pathvisio.go;
 
 import java.io.File;
-import java.util.Set;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.bridgedb.AttributeMapper;
 import org.bridgedb.BridgeDb;
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
 import org.bridgedb.IDMapperException;
+import org.bridgedb.IDMapperStack;
 import org.bridgedb.Xref;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.model.ConverterException;
-import org.pathvisio.core.model.DataNodeType;
-import org.pathvisio.core.model.GroupStyle;
 import org.pathvisio.core.model.ObjectType;
 import org.pathvisio.core.model.Pathway;
 import org.pathvisio.core.model.PathwayElement;
 import org.pathvisio.core.preferences.PreferenceManager;
 import org.pathvisio.core.util.ProgressKeeper;
-import org.pathvisio.core.util.Utils;
 
 /**
  * Run GoPathway with the following command line arguments (5 or more):
@@ -50,12 +52,24 @@ import org.pathvisio.core.util.Utils;
  *  Column 2: GO ID
  *  Any more columns are ignored if present.
  *  (NB: Make sure you don't have a column with Ensembl transcript ID's)
+ * A GO Annotation Format (GAF) file can be used instead, and either may be gzip compressed.
+ * See {@link GoAnnotationMapper}.
  *  
- * Argument 3: file name of a PathVisio pgdb database for the correct species.
+ * Argument 3: file name of a PathVisio pgdb database for the correct species, used for gene symbols
+ * and for genes that are not in the mapping of argument 2. Use - to map with argument 2 only.
  * 
  * Argument 4: output directory, This should be an existing directory
  * 
- * Argument 5 and on: GO ID to make pathways of
+ * Argument 5 and on: GO ID to make pathways of. Instead of a GO ID, an argument can also be
+ * 	@file: a file with one GO ID per line
+ * 	N..M: all terms that have from N up to M genes, including the genes of their descendants
+ * 	--threads=N: the number of pathways to make at the same time, by default one per processor
+ * 	--stream=N: write pathways with more than N genes while they are laid out, to save memory.
+ * 		By default pathways with more than {@link GoPathwayBatch#DEFAULT_STREAM_THRESHOLD} genes are streamed.
+ * 	--force: also write the pathways that are up to date
+ * 
+ * The output directory gets a {@link GoBuildManifest}, so that a run that is repeated, 
+ * e.g. after a crash or for a new release, only writes the pathways that have changed.
  * 
  * For example
  * 
@@ -70,7 +84,7 @@ import org.pathvisio.core.util.Utils;
  */
 public class GoPathway 
 {
-	private void run (String[] args) throws IDMapperException
+	private void run (String[] args) throws IDMapperException, IOException
 	{
 		File obo = new File (args[0]);
 		File mart = new File (args[1]);
@@ -82,172 +96,316 @@ public class GoPathway
 			throw new IllegalArgumentException();
 		}
 
-		try
-		{
-			Class.forName ("org.bridgedb.rdb.IDMapperRdb");
-		}
-		catch (ClassNotFoundException e1)
+		GoAnnotationMapper.register();
+		IDMapper gdb = BridgeDb.connect (GoAnnotationMapper.PREFIX + ":" + mart.getAbsolutePath());
+		if (!"-".equals(gdbname))
 		{
-			throw new IDMapperException(e1);
+			try
+			{
+				Class.forName ("org.bridgedb.rdb.IDMapperRdb");
+			}
+			catch (ClassNotFoundException e1)
+			{
+				throw new IDMapperException(e1);
+			}
+			// the annotation file goes first, the pgdb fills in symbols and other genes 
+			IDMapperStack stack = new IDMapperStack();
+			stack.addIDMapper(gdb);
+			stack.addIDMapper(BridgeDb.connect ("idmapper-pgdb:" + gdbname));
+			gdb = stack;
 		}
-		IDMapper gdb = BridgeDb.connect ("idmapper-pgdb:" + gdbname); 
+		GoReader reader = GoRegistry.get(obo);
+		Logger.log.info ("Go terms read: " + reader.getTerms().size());
+		
+		GoPathwayBatch batch = new GoPathwayBatch(reader, gdb, (AttributeMapper)gdb, destDir);
+		List<GoTerm> terms = new ArrayList<GoTerm>();
 		for (int i = 4; i < args.length; ++i)
 		{
-			String goid = args[i];
-			
-			
-			GoReader reader = new GoReader(obo);
-			
-			Logger.log.info ("Go terms read: " + reader.getTerms().size());
-			
-			GoTerm term = reader.findTerm(goid);
-			Logger.log.info (goid);
-			if (term == null) throw new NullPointerException();
-			
-			Pathway p = makeGoPathway (reader, term, gdb, (AttributeMapper)gdb, null);
-			p.getMappInfo().setAuthor("Martijn van Iersel");
-			p.getMappInfo().setMapInfoDataSource("Gene Ontology");
-			p.getMappInfo().setEmail("martijn.vaniersel@bigcat.unimaas.nl");
-			
-			String name = "Hs_GO_" + term.getName();
-			if (name.length() >= 50) name = name.substring (0, 50);
-			
-			p.getMappInfo().setMapInfoName(name);
-			
-			try
+			String arg = args[i];
+			if (arg.equals("--force"))
+			{
+				batch.setRebuildAll(true);
+			}
+			else if (arg.startsWith("--stream="))
+			{
+				batch.setStreamThreshold(Integer.parseInt(arg.substring("--stream=".length())));
+			}
+			else if (arg.startsWith("--threads="))
 			{
-				p.writeToXml(new File (destDir, "Hs_GO_" + term.getName() + ".gpml"), true);
+				batch.setThreads(Integer.parseInt(arg.substring("--threads=".length())));
 			}
-			catch (ConverterException e)
+			else if (arg.startsWith("@"))
 			{
-				Logger.log.error ("",e);
+				terms.addAll(batch.readTermList(new File (arg.substring(1))));
 			}
+			else if (arg.contains(".."))
+			{
+				int sep = arg.indexOf("..");
+				terms.addAll(batch.selectByGeneCount(Integer.parseInt(arg.substring(0, sep)), 
+						Integer.parseInt(arg.substring(sep + 2))));
+			}
+			else
+			{
+				GoTerm term = reader.findTerm(arg);
+				if (term == null) throw new IllegalArgumentException("GO term " + arg + " not found");
+				terms.add(term);
+			}
+		}
+		
+		GoBuildManifest manifest = new GoBuildManifest(destDir);
+		batch.setManifest(manifest);
+		try
+		{
+			batch.run(terms);
+		}
+		catch (InterruptedException e)
+		{
+			Logger.log.error ("Interrupted", e);
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			manifest.close();
 		}
 	}
 	
-	public Pathway makeGoPathway (GoReader reader, GoTerm base, IDMapper gdb, AttributeMapper adb, ProgressKeeper pk) throws IDMapperException
+	/**
+	 * Set the author, name and other information of a GO pathway 
+	 */
+	static void setMappInfo (PathwayElement info, GoTerm term)
 	{
-		Pathway result = new Pathway();
-
-		double top = 60;
-		double left = 60;
-
-		addIds (result,  base, left, top, gdb, adb, null, pk);
+		info.setAuthor("Martijn van Iersel");
+		info.setMapInfoDataSource("Gene Ontology");
+		info.setEmail("martijn.vaniersel@bigcat.unimaas.nl");
 		
-		return result;
+		String name = "Hs_GO_" + term.getName();
+		if (name.length() >= 50) name = name.substring (0, 50);
+		
+		info.setMapInfoName(name);
 	}
 	
-	static final int MAXCOLNUM = 10;
-	static final double DATANODEWIDTH = 100;
-	static final double DATANODEHEIGHT = 20;
-	static final double LABELWIDTH = 400;
-	static final double LABELHEIGHT = 20;
-	static final double MARGIN = 7;
-	static final double COLWIDTH = MAXCOLNUM * (DATANODEWIDTH + MARGIN);
-	static final double INDENT = 30;
-
-	double addIds (Pathway p, GoTerm term, double left, double top, IDMapper gdb, AttributeMapper adb, String parentGroup, ProgressKeeper pk) throws IDMapperException
+	/**
+	 * return the file that the pathway of a term is written to.
+	 */
+	static File getOutputFile (File destDir, GoTerm term)
 	{
-		pk.setProgress(0);
-		pk.setTaskName("Go term: " + term.getName());
-
+		return new File (destDir, "Hs_GO_" + term.getName() + ".gpml");
+	}
+	
+	public Pathway makeGoPathway (GoReader reader, GoTerm base, IDMapper gdb, AttributeMapper adb, ProgressKeeper pk) throws IDMapperException
+	{
+		return makeGoPathway (reader, base, gdb, adb, new GoSymbolCache(adb), pk);
+	}
+	
+	/**
+	 * Create the pathway for a GO term, using a symbol cache that may be shared with other pathways.
+	 * Different pathways can be made at the same time from different threads.
+	 * @throws GoCancelledException if pk is cancelled
+	 */
+	public Pathway makeGoPathway (GoReader reader, GoTerm base, IDMapper gdb, AttributeMapper adb, GoSymbolCache symbols, ProgressKeeper pk) throws IDMapperException
+	{
+		return makeGoPathway (reader, base, gdb, adb, symbols, new GoProgress(pk));
+	}
+	
+	/**
+	 * Create the pathway for a GO term, within the budget of progress. 
+	 * When the layout goes over budget, the pathway so far is returned, with a label at 
+	 * the top that says why it is incomplete.
+	 * @throws GoCancelledException if progress is cancelled, or goes over budget before the layout
+	 */
+	public Pathway makeGoPathway (GoReader reader, GoTerm base, IDMapper gdb, AttributeMapper adb, GoSymbolCache symbols, GoProgress progress) throws IDMapperException
+	{
+		return makeGoPathway (mapSubtree (reader, base, gdb, progress), symbols, progress, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Map every term in the subtree below base only once, for both pruning and layout.
+	 * @param progress the progress to report to, or null
+	 */
+	static GoSubtreeRefs mapSubtree (GoReader reader, GoTerm base, IDMapper gdb, GoProgress progress) throws IDMapperException
+	{
+		if (progress == null) progress = new GoProgress(null);
 		String ds = PreferenceManager.getCurrent().get (GoPlugin.GoPreference.GO_PLUGIN_TARGET_DATASOURCE);
 		//TODO: make configurable with drop-down box.
 		DataSource dest = DataSource.getByFullName(ds);
 		
-		// ignore if there are no genes corresponding to this tree.
-		if (GoMap.getRefsRecursive(term, gdb, dest).size() == 0) return top; 
+		progress.startStage(GoProgress.Stage.MAPPING, "Mapping genes for " + base.getName(), 
+				base.getGraph().getClosure().getDescendantCount(base.getIndex()) + 1);
+		String gdbIdentity = GoMappingCache.identify(gdb);
+		GoMappingCache cache = gdbIdentity == null ? null : GoMappingCache.open(gdbIdentity, dest, reader.getVersion());
+		return new GoSubtreeRefs(base, gdb, dest, cache, progress);
+	}
+	
+	/**
+	 * Create the pathway for a subtree that has been mapped already.
+	 * @param progress the progress to report to, or null
+	 * @param threads the number of threads to lay out a large pathway on, 1 to use only 
+	 * 	the calling thread, e.g. when several pathways are made at the same time
+	 */
+	Pathway makeGoPathway (GoSubtreeRefs refs, GoSymbolCache symbols, GoProgress progress, int threads)
+	{
+		final Pathway result = new Pathway();
+		GoTerm base = refs.getBase();
+		layout (new ElementSink() {
+			public void add (PathwayElement elt)
+			{
+				result.add (elt);
+			}
+		}, new GoLayout(refs, symbols), Collections.singletonList(base), refs.getRefsRecursive(base), 
+			symbols, progress, threads);
+		return result;
+	}
+	
+	/**
+	 * Create one page of a pathway that has been split up. A page after the first starts
+	 * with a label that links back to the page it was split off from.
+	 * @param progress the progress to report to, or null
+	 */
+	Pathway makeGoPage (GoPages pages, int page, GoSymbolCache symbols, GoProgress progress)
+	{
+		final Pathway result = new Pathway();
+		List<GoTerm> terms = pages.getTerms(page);
+		setMappInfo (result.getMappInfo(), terms.get(0));
 		
-		Set<Xref> refs = GoMap.getRefs(term, gdb, dest);
-
-		double xco = 0;
-		double yco = 0;
-
-		PathwayElement group = PathwayElement.createPathwayElement(ObjectType.GROUP);
-		group.setGroupStyle(GroupStyle.COMPLEX);
-		group.setTextLabel(term.getId());
-
-		if (parentGroup != null)
+		GoTerm parent = pages.getParent(page);
+		if (parent != null)
 		{
-			group.setGroupRef(parentGroup);
+			PathwayElement back = createLabel ("Back to " + parent.getId() + " " + parent.getName(), TOP - MARGIN - LABELHEIGHT);
+			back.setHref(pages.getLink(parent));
+			result.add (back);
 		}
 		
-		p.add (group);
-		String groupRef = group.createGroupId();
-		
-		PathwayElement label = PathwayElement.createPathwayElement(ObjectType.LABEL);
-		
-		label.setMCenterX(left + LABELWIDTH / 2);
-		label.setMCenterY(top + LABELHEIGHT / 2);
-		label.setMWidth(LABELWIDTH);
-		label.setMHeight(LABELHEIGHT);		
-		label.setTextLabel(term.getId() + " " + term.getName());
-		label.setGroupRef(groupRef);
-		
-		top += LABELHEIGHT + MARGIN;
-		
-		p.add(label);
-		
-		int i = 0;
-		
-		for (Xref ref : refs)
-		{
-			PathwayElement pelt = PathwayElement.createPathwayElement(ObjectType.DATANODE);
-			
-			String symbol = null;
-			try
+		layout (new ElementSink() {
+			public void add (PathwayElement elt)
 			{
-				symbol = Utils.oneOf(adb.getAttributes(ref, "Symbol")); 
+				result.add (elt);
 			}
-			catch (IDMapperException ex)
+		}, new GoLayout(pages.getRefs(), symbols, pages.getLinks()), terms, pages.getGenes(page), 
+			symbols, progress, Runtime.getRuntime().availableProcessors());
+		return result;
+	}
+	
+	/**
+	 * Write all pages of a pathway that has been split up, one at a time,
+	 * each to its own file as planned by the pages.
+	 * @param progress the progress to report to, or null. The budget applies to all pages together, 
+	 * 	once it is used up the remaining pages are not written.
+	 * @return the file of the first page
+	 */
+	File writeGoPages (GoPages pages, GoSymbolCache symbols, GoProgress progress) throws ConverterException
+	{
+		if (progress == null) progress = new GoProgress(null);
+		makeGoPage (pages, 0, symbols, progress).writeToXml(pages.getFile(0), true);
+		for (int page = 1; page < pages.size() && !progress.isOverBudget(); ++page)
+		{
+			try
 			{
-				Logger.log.warn ("Failed lookup of gene symbol", ex);
+				makeGoPage (pages, page, symbols, progress).writeToXml(pages.getFile(page), true);
 			}
-			if (symbol == null) symbol = ref.getId();
-			
-			pelt.setMCenterX(left + xco + DATANODEWIDTH / 2);
-			pelt.setMCenterY(top + yco + DATANODEHEIGHT / 2);
-			pelt.setMWidth(DATANODEWIDTH);
-			pelt.setMHeight(DATANODEHEIGHT);
-			
-			pelt.setDataSource(ref.getDataSource());
-			pelt.setElementID(ref.getId());
-			pelt.setDataNodeType(DataNodeType.GENEPRODUCT);
-			pelt.setTextLabel(symbol);
-			pelt.setGroupRef (groupRef);
-			
-			p.add(pelt);
-			
-			xco += DATANODEWIDTH + MARGIN;
-			
-			if (xco >= COLWIDTH)
+			catch (GoCancelledException e)
 			{
-				xco = 0;
-				yco += DATANODEHEIGHT;
+				if (!e.isOverBudget()) throw e;
 			}
-			
-			pk.setProgress(i++ * 60 / refs.size());
 		}
+		if (progress.isOverBudget())
+		{
+			Logger.log.warn ("Not all pages of " + pages.getFileName(0) + " were written: " + progress.getStopReason());
+		}
+		return pages.getFile(0);
+	}
+	/**
+	 * Write the pathway for a subtree that has been mapped already to a GPML file,
+	 * without keeping the whole pathway in memory, see {@link GoGpmlWriter}. 
+	 * Use this for terms with a lot of genes.
+	 * The file is validated against the GPML schema, like {@link Pathway#writeToXml(File, boolean)} does.
+	 * @param progress the progress to report to, or null
+	 */
+	void writeGoPathway (GoSubtreeRefs refs, GoSymbolCache symbols, File output, GoProgress progress) throws IOException, ConverterException
+	{
+		GoGpmlWriter writer = new GoGpmlWriter(output);
+		try
+		{
+			GoTerm base = refs.getBase();
+			setMappInfo (writer.getMappInfo(), base);
+			layout (writer, new GoLayout(refs, symbols), Collections.singletonList(base), refs.getRefsRecursive(base), 
+					symbols, progress, 1);
+			writer.finish(true);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+	
+	/** 
+	 * Receives the elements of a GO pathway as they are laid out: either a {@link Pathway},
+	 * or a {@link GoGpmlWriter} that writes them to file straight away.
+	 */
+	interface ElementSink
+	{
+		void add (PathwayElement elt);
+	}
+	
+	/** top of the first term of a pathway */
+	static final double TOP = 60;
+	/** left side of the first term of a pathway */
+	static final double LEFT = 60;
+	
+	/**
+	 * Look up the symbols of the genes, and lay out the terms one below the other.
+	 * When the layout goes over budget, the elements so far are kept, and a label 
+	 * at the top says why the pathway is incomplete.
+	 */
+	private void layout (ElementSink out, GoLayout layout, List<GoTerm> terms, Collection<Xref> genes, GoSymbolCache symbols, GoProgress progress, int threads)
+	{
+		if (progress == null) progress = new GoProgress(null);
+		GoTerm base = terms.get(0);
 		
-		double bottom = top + yco;
+		// look up all symbols before the layout, which then only reads them from memory.
+		progress.startStage(GoProgress.Stage.SYMBOLS, "Looking up gene symbols for " + base.getName(), genes.size());
+		symbols.prefetch(genes, progress);
 		
-		if (refs.size() > 0)
+		long elements = 0;
+		for (GoTerm term : terms) elements += layout.getElementCount(term);
+		progress.startStage(GoProgress.Stage.LAYOUT, "Laying out " + base.getName(), elements);
+		double top = TOP;
+		try
 		{
-			bottom += DATANODEHEIGHT * 2;
+			for (GoTerm term : terms)
+			{
+				top = layout.layout (out, term, LEFT, top, progress, threads);
+			}
 		}
-		
-		i = 0;
-		for (GoTerm child : term.getChildren())
+		catch (GoCancelledException e)
 		{
-			bottom = addIds (p, child, left + INDENT, bottom, gdb, adb, groupRef, pk);
-			pk.setProgress(60 + (i * 40 / term.getChildren().size()));
+			if (!e.isOverBudget()) throw e;
+			Logger.log.warn ("Incomplete pathway for " + base.getId() + ": " + e.getMessage());
+			out.add (createLabel ("Incomplete pathway: " + e.getMessage(), TOP - 2 * (MARGIN + LABELHEIGHT)));
 		}
-		
-		return bottom + DATANODEHEIGHT;
 	}
 	
+	/** create a label at the left side of the pathway */
+	private static PathwayElement createLabel (String text, double top)
+	{
+		PathwayElement label = PathwayElement.createPathwayElement(ObjectType.LABEL);
+		label.setMCenterX(LEFT + LABELWIDTH / 2);
+		label.setMCenterY(top + LABELHEIGHT / 2);
+		label.setMWidth(LABELWIDTH);
+		label.setMHeight(LABELHEIGHT);
+		label.setTextLabel(text);
+		return label;
+	}
 	
-	public static void main(String [] args) throws IDMapperException
+	static final int MAXCOLNUM = 10;
+	static final double DATANODEWIDTH = 100;
+	static final double DATANODEHEIGHT = 20;
+	static final double LABELWIDTH = 400;
+	static final double LABELHEIGHT = 20;
+	static final double MARGIN = 7;
+	static final double COLWIDTH = MAXCOLNUM * (DATANODEWIDTH + MARGIN);
+	static final double INDENT = 30;
+
+	public static void main(String [] args) throws IDMapperException, IOException
 	{
 		GoPathway pathway = new GoPathway();
 		pathway.run (args);
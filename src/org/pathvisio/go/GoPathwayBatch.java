@@ -0,0 +1,306 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.model.ConverterException;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.preferences.PreferenceManager;
+
+/**
+ * Makes the GO pathways of many terms in one go, e.g. to regenerate a whole collection
+ * for a new release of the ontology.
+ * <p>
+ * Pathways are made on a pool of worker threads, which share the ontology, the 
+ * {@link GoMappingCache} and a {@link GoSymbolCache}. Finished pathways are handed to 
+ * a single writer, the thread that called {@link #run(List)}, through a bounded queue, 
+ * so that no more than a few pathways are kept in memory.
+ * <p>
+ * Pathways of terms with more than {@link #DEFAULT_STREAM_THRESHOLD} genes are not handed to 
+ * the writer, but written by the worker while they are laid out, see {@link GoGpmlWriter}.
+ * <p>
+ * With a {@link GoBuildManifest}, pathways that are up to date are skipped, and each 
+ * pathway is added to the manifest once it is written.
+ */
+public class GoPathwayBatch
+{
+	/** by default, pathways with more genes than this are streamed to file */
+	public static final int DEFAULT_STREAM_THRESHOLD = 5000;
+	
+	private final GoReader reader;
+	private final IDMapper gdb;
+	private final AttributeMapper adb;
+	private final File destDir;
+	private final GoSymbolCache symbols;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private GoBuildManifest manifest = null;
+	private boolean rebuildAll = false;
+	private int streamThreshold = DEFAULT_STREAM_THRESHOLD;
+	
+	public GoPathwayBatch (GoReader reader, IDMapper gdb, AttributeMapper adb, File destDir)
+	{
+		this.reader = reader;
+		this.gdb = gdb;
+		this.adb = adb;
+		this.destDir = destDir;
+		symbols = new GoSymbolCache(adb);
+	}
+	
+	/** set the number of pathways that are made at the same time */
+	public void setThreads (int threads)
+	{
+		if (threads < 1) throw new IllegalArgumentException("Need at least one thread");
+		this.threads = threads;
+	}
+	
+	/** 
+	 * set the manifest of the output directory, or null to not use one. 
+	 * The manifest is not closed by the batch.
+	 */
+	public void setManifest (GoBuildManifest manifest)
+	{
+		this.manifest = manifest;
+	}
+	
+	/** 
+	 * set the number of genes above which a pathway is written while it is laid out, 
+	 * instead of being built in memory first. 0 to stream all pathways.
+	 */
+	public void setStreamThreshold (int streamThreshold)
+	{
+		this.streamThreshold = streamThreshold;
+	}
+	
+	/** set to true to write all pathways, also those that the manifest says are up to date */
+	public void setRebuildAll (boolean rebuildAll)
+	{
+		this.rebuildAll = rebuildAll;
+	}
+	
+	/**
+	 * Read a list of GO ids, one per line. Empty lines and lines starting with # are skipped.
+	 * @throws IllegalArgumentException if a term is not in the ontology
+	 */
+	public List<GoTerm> readTermList (File file) throws IOException
+	{
+		List<GoTerm> result = new ArrayList<GoTerm>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) continue;
+				GoTerm term = reader.findTerm(line);
+				if (term == null) throw new IllegalArgumentException("GO term " + line + " in " + file + " not found");
+				result.add(term);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return result;
+	}
+	
+	/**
+	 * return all terms with at least min and at most max genes, counting the genes of 
+	 * their descendants too. All terms are mapped to find out, through the mapping cache.
+	 */
+	public List<GoTerm> selectByGeneCount (int min, int max) throws IDMapperException
+	{
+		DataSource dest = getTargetDataSource();
+		Map<GoTerm, Set<Xref>> direct = GoMap.getRefs(reader.getTerms(), gdb, dest, openCache(dest));
+		GoAnnotations.Builder builder = new GoAnnotations.Builder();
+		for (Map.Entry<GoTerm, Set<Xref>> entry : direct.entrySet())
+		{
+			for (Xref ref : entry.getValue())
+			{
+				builder.add(ref.getId(), entry.getKey().getAccession());
+			}
+		}
+		GoPropagatedAnnotations propagated = new GoPropagatedAnnotations(reader.getGraph(), builder.build());
+		
+		List<GoTerm> result = new ArrayList<GoTerm>();
+		GoGraph graph = reader.getGraph();
+		for (int i = 0; i < graph.size(); ++i)
+		{
+			int count = propagated.getGenes(i).cardinality();
+			if (count >= min && count <= max) result.add(graph.getTerm(i));
+		}
+		Logger.log.info (result.size() + " GO terms with " + min + " to " + max + " genes");
+		return result;
+	}
+	
+	private DataSource getTargetDataSource()
+	{
+		return DataSource.getByFullName(PreferenceManager.getCurrent().get (GoPlugin.GoPreference.GO_PLUGIN_TARGET_DATASOURCE));
+	}
+	
+	private GoMappingCache openCache(DataSource dest)
+	{
+		String gdbIdentity = GoMappingCache.identify(gdb);
+		return gdbIdentity == null ? null : GoMappingCache.open(gdbIdentity, dest, reader.getVersion());
+	}
+	
+	/** 
+	 * a finished pathway, or the reason it could not be made. 
+	 * The pathway is null if it was up to date, or streamed to file already. 
+	 */
+	private static class Output
+	{
+		final GoTerm term;
+		final String hash;
+		final Pathway pathway;
+		final boolean streamed;
+		final Throwable error;
+		
+		Output (GoTerm term, String hash, Pathway pathway, boolean streamed, Throwable error)
+		{
+			this.term = term;
+			this.hash = hash;
+			this.pathway = pathway;
+			this.streamed = streamed;
+			this.error = error;
+		}
+	}
+	
+	/**
+	 * Make and write the pathways of the given terms. Failures are logged, and don't 
+	 * stop the other pathways.
+	 * @return the number of pathways written, not counting those that were up to date
+	 */
+	public int run (List<GoTerm> terms) throws InterruptedException
+	{
+		final BlockingQueue<Output> queue = new ArrayBlockingQueue<Output>(threads * 2);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		int written = 0;
+		int skipped = 0;
+		try
+		{
+			for (final GoTerm term : terms)
+			{
+				executor.execute(new Runnable() {
+					public void run()
+					{
+						Output output;
+						try
+						{
+							GoSubtreeRefs refs = GoPathway.mapSubtree(reader, term, gdb, null);
+							String hash = manifest == null ? null : GoBuildManifest.hash(refs);
+							File file = GoPathway.getOutputFile(destDir, term);
+							if (hash != null && !rebuildAll && manifest.isUpToDate(term, hash, file))
+							{
+								output = new Output(term, hash, null, false, null);
+							}
+							else if (refs.getRefsRecursive(term).size() > streamThreshold)
+							{
+								new GoPathway().writeGoPathway(refs, symbols, file, null);
+								output = new Output(term, hash, null, true, null);
+							}
+							else
+							{
+								// the workers already keep the processors busy, one thread each
+								Pathway p = new GoPathway().makeGoPathway(refs, symbols, null, 1);
+								GoPathway.setMappInfo(p.getMappInfo(), term);
+								output = new Output(term, hash, p, false, null);
+							}
+						}
+						catch (Throwable e)
+						{
+							// Errors as well, e.g. running out of memory on a large term:
+							// the writer waits for an output for every term
+							output = new Output(term, null, null, false, e);
+						}
+						try
+						{
+							queue.put(output);
+						}
+						catch (InterruptedException e)
+						{
+							// only from shutdownNow, when the writer doesn't wait anymore
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+			}
+			
+			for (int i = 0; i < terms.size(); ++i)
+			{
+				Output output = queue.take();
+				if (output.error != null)
+				{
+					Logger.log.error ("Could not make the pathway of " + output.term.getId(), output.error);
+					continue;
+				}
+				if (output.pathway == null && !output.streamed)
+				{
+					skipped++;
+					continue;
+				}
+				File file = GoPathway.getOutputFile(destDir, output.term);
+				try
+				{
+					if (!output.streamed) output.pathway.writeToXml(file, true);
+					written++;
+					Logger.log.info ("Written " + (i + 1) + " of " + terms.size() + ": " + file);
+				}
+				catch (ConverterException e)
+				{
+					Logger.log.error ("Could not write " + file, e);
+					continue;
+				}
+				if (manifest != null)
+				{
+					try
+					{
+						manifest.record(output.term, output.hash, file);
+					}
+					catch (IOException e)
+					{
+						Logger.log.error ("Could not add " + file + " to the build manifest", e);
+					}
+				}
+			}
+			if (skipped > 0) Logger.log.info ("Skipped " + skipped + " pathways that are up to date");
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		return written;
+	}
+}
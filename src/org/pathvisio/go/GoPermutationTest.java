@@ -0,0 +1,370 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Empirical significance of a {@link GoEnrichment} by permutation: random gene lists of the 
+ * same size are drawn from the background, and the hypergeometric p-value of each term 
+ * in the real list is compared with those in the random lists. This doesn't depend on the 
+ * assumption that genes are independent, which the hypergeometric p-values do.
+ * <p>
+ * Two p-values are reported for each term:
+ * <ul>
+ * <li>empirical: the fraction of permutations in which the term has a p-value at least as small 
+ * as in the real list.
+ * <li>family-wise: the fraction of permutations in which any term has a p-value at least 
+ * as small as that of the term in the real list (single-step minP). This is corrected for testing
+ * all terms at once.
+ * </ul>
+ * Both are computed as (1 + count) / (1 + permutations), so they are never zero.
+ * <p>
+ * Permutation i draws its genes with a random generator seeded from the seed and i, so for 
+ * the same seed the results are the same however the permutations are split over threads. 
+ * Each thread reuses its buffers from one permutation to the next. For each background gene 
+ * the terms it is annotated with after propagation are listed up front, so that counting a 
+ * random list is a scan through those lists.
+ */
+public final class GoPermutationTest
+{
+	/** relative tolerance when comparing p-values, so that rounding doesn't break ties */
+	private static final double TOLERANCE = 1e-9;
+	
+	private final GoEnrichment enrichment;
+	/** background gene numbers */
+	private final int[] background;
+	/** graph indices of the propagated terms of each background gene, by position in background */
+	private final int[] termStart;
+	private final int[] terms;
+	
+	public GoPermutationTest (GoEnrichment enrichment)
+	{
+		this.enrichment = enrichment;
+		background = enrichment.getBackground().toArray();
+		
+		GoPropagatedAnnotations propagated = enrichment.getPropagated();
+		GoAnnotations annotations = propagated.getAnnotations();
+		GoClosure closure = propagated.getGraph().getClosure();
+		int[] seen = new int[propagated.getGraph().size()];
+		Arrays.fill(seen, -1);
+		IntList list = new IntList();
+		termStart = new int[background.length + 1];
+		for (int i = 0; i < background.length; ++i)
+		{
+			int g = background[i];
+			for (int k = 0; k < annotations.getTermCount(g); ++k)
+			{
+				int term = propagated.getGraphIndex(annotations.getTerm(g, k));
+				if (term < 0 || seen[term] == g) continue;
+				seen[term] = g;
+				list.add(term);
+				for (int a = 0; a < closure.getAncestorCount(term); ++a)
+				{
+					int ancestor = closure.getAncestor(term, a);
+					if (seen[ancestor] == g) continue;
+					seen[ancestor] = g;
+					list.add(ancestor);
+				}
+			}
+			termStart[i + 1] = list.size();
+		}
+		terms = list.toArray();
+	}
+	
+	/**
+	 * Run the permutations on the calling thread.
+	 */
+	public Result run (GeneBitmap list, int permutations, long seed)
+	{
+		Result result = new Result(enrichment.test(list, GoEnrichment.Test.HYPERGEOMETRIC), permutations);
+		Worker worker = new Worker(result, seed);
+		worker.run(0, permutations);
+		result.finish(Arrays.asList(worker));
+		return result;
+	}
+	
+	/**
+	 * Run the permutations split in the given number of parts that are run on the given executor.
+	 */
+	public Result run (GeneBitmap list, int permutations, final long seed, ExecutorService executor, int parts) throws InterruptedException
+	{
+		final Result result = new Result(enrichment.test(list, GoEnrichment.Test.HYPERGEOMETRIC), permutations);
+		parts = Math.max(1, Math.min(parts, permutations));
+		List<Future<Worker>> futures = new ArrayList<Future<Worker>>();
+		for (int p = 0; p < parts; ++p)
+		{
+			final int from = (int)((long)permutations * p / parts);
+			final int to = (int)((long)permutations * (p + 1) / parts);
+			futures.add (executor.submit(new Callable<Worker>() {
+				public Worker call()
+				{
+					Worker worker = new Worker(result, seed);
+					worker.run(from, to);
+					return worker;
+				}
+			}));
+		}
+		List<Worker> workers = new ArrayList<Worker>();
+		for (Future<Worker> future : futures)
+		{
+			try
+			{
+				workers.add(future.get());
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		result.finish(workers);
+		return result;
+	}
+	
+	/**
+	 * Runs a range of permutations, with its own buffers.
+	 */
+	private class Worker
+	{
+		private final Result result;
+		private final long seed;
+		private final SplitMix random = new SplitMix();
+		
+		/** positions in background, the first n are the current random list */
+		private final int[] pool = new int[background.length];
+		/** the swaps done to draw the current list, to undo them afterwards */
+		private final int[] swaps;
+		/** overlap by graph index, only non-zero for touched terms */
+		private final int[] counts;
+		private final int[] touched;
+		/** number of permutations in which each term had an overlap at least as large as observed */
+		private final int[] exceeded;
+		
+		Worker (Result result, long seed)
+		{
+			this.result = result;
+			this.seed = seed;
+			int size = enrichment.getPropagated().getGraph().size();
+			for (int i = 0; i < pool.length; ++i) pool[i] = i;
+			swaps = new int[result.n];
+			counts = new int[size];
+			touched = new int[size];
+			exceeded = new int[size];
+		}
+		
+		void run (int from, int to)
+		{
+			int N = pool.length;
+			int n = result.n;
+			
+			for (int i = from; i < to; ++i)
+			{
+				random.seed(seed, i);
+				int touchedCount = 0;
+				// draw n genes without replacement, by a partial Fisher-Yates shuffle
+				for (int j = 0; j < n; ++j)
+				{
+					int r = j + random.nextInt(N - j);
+					swaps[j] = r;
+					int gene = pool[r]; pool[r] = pool[j]; pool[j] = gene;
+					
+					for (int p = termStart[gene]; p < termStart[gene + 1]; ++p)
+					{
+						int term = terms[p];
+						if (counts[term]++ == 0) touched[touchedCount++] = term;
+					}
+				}
+				
+				// terms without overlap have a p-value of 1, so only touched terms matter. 
+				// A larger overlap means a smaller p-value for the same term.
+				// The probability of exactly k is a lower bound for the p-value, which is cheap to 
+				// compute and rules out most terms as the minimum.
+				double min = 1.0;
+				double logMin = 0.0;
+				for (int t = 0; t < touchedCount; ++t)
+				{
+					int term = touched[t];
+					int k = counts[term];
+					counts[term] = 0;
+					if (result.observed[term] > 0 && k >= result.observed[term]) exceeded[term]++;
+					if (k < result.minOverlap[term]) continue;
+					int K = enrichment.getTermSize(term);
+					if (enrichment.logProbability(N, K, n, k) >= logMin) continue;
+					double p = enrichment.pValue(N, K, n, k, GoEnrichment.Test.HYPERGEOMETRIC);
+					if (p < min)
+					{
+						min = p;
+						logMin = Math.log(p);
+					}
+				}
+				result.minP[i] = min;
+				
+				// undo the swaps, so the pool is the same for each permutation
+				for (int j = n - 1; j >= 0; --j)
+				{
+					int r = swaps[j];
+					int g = pool[r]; pool[r] = pool[j]; pool[j] = g;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * SplitMix64 generator. A fresh, well mixed state can be derived cheaply for each 
+	 * permutation, which is what makes the result independent of the number of threads.
+	 */
+	private static final class SplitMix
+	{
+		private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+		private long state;
+		
+		void seed (long seed, int index)
+		{
+			state = mix(seed + (index + 1) * GOLDEN_GAMMA);
+		}
+		
+		long nextLong ()
+		{
+			return mix(state += GOLDEN_GAMMA);
+		}
+		
+		/** uniform in 0 (inclusive) to bound (exclusive) */
+		int nextInt (int bound)
+		{
+			int bits, value;
+			do
+			{
+				bits = (int)(nextLong() >>> 33);
+				value = bits % bound;
+			} while (bits - value + (bound - 1) < 0);
+			return value;
+		}
+		
+		private static long mix (long z)
+		{
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+	
+	/**
+	 * Outcome of a permutation test. Rows are the same as in the enrichment result of the real list.
+	 */
+	public final class Result
+	{
+		private final GoEnrichment.Result real;
+		private final int permutations;
+		private final int n;
+		/** overlap of the real list, by graph index */
+		private final int[] observed;
+		/** 
+		 * smallest overlap for which a term can have a p-value at or below the largest observed
+		 * p-value below 1, by graph index. Only those matter for the family-wise p-values.
+		 */
+		private final int[] minOverlap;
+		/** smallest p-value of any term, by permutation */
+		private final double[] minP;
+		private double[] empirical;
+		private double[] familyWise;
+		
+		private Result (GoEnrichment.Result real, int permutations)
+		{
+			this.real = real;
+			this.permutations = permutations;
+			n = real.getList().cardinality();
+			int size = enrichment.getPropagated().getGraph().size();
+			observed = new int[size];
+			minOverlap = new int[size];
+			Arrays.fill(minOverlap, Integer.MAX_VALUE);
+			minP = new double[permutations];
+			
+			double largest = 0;
+			for (int row = 0; row < real.size(); ++row)
+			{
+				observed[real.getTermIndex(row)] = real.getOverlap(row);
+				if (real.getPValue(row) < 1.0) largest = real.getPValue(row);
+			}
+			// p-values go down as the overlap goes up, so the smallest overlap can be found by bisection
+			double limit = largest * (1 + TOLERANCE);
+			int N = background.length;
+			for (int row = 0; row < real.size(); ++row)
+			{
+				int term = real.getTermIndex(row);
+				int K = enrichment.getTermSize(term);
+				int hi = Math.min(K, n);
+				if (largest == 0 || enrichment.pValue(N, K, n, hi, GoEnrichment.Test.HYPERGEOMETRIC) > limit) continue;
+				int lo = 0; // p-value of lo is above the limit, that of hi is not
+				while (hi - lo > 1)
+				{
+					int mid = (lo + hi) >>> 1;
+					if (enrichment.pValue(N, K, n, mid, GoEnrichment.Test.HYPERGEOMETRIC) <= limit) hi = mid; else lo = mid;
+				}
+				minOverlap[term] = hi;
+			}
+		}
+		
+		private void finish (List<Worker> workers)
+		{
+			int[] exceeded = new int[observed.length];
+			for (Worker worker : workers)
+			{
+				for (int t = 0; t < exceeded.length; ++t) exceeded[t] += worker.exceeded[t];
+			}
+			double[] sorted = minP.clone();
+			Arrays.sort(sorted);
+			empirical = new double[real.size()];
+			familyWise = new double[real.size()];
+			for (int row = 0; row < real.size(); ++row)
+			{
+				double p = real.getPValue(row);
+				if (p >= 1.0)
+				{
+					empirical[row] = 1.0;
+					familyWise[row] = 1.0;
+					continue;
+				}
+				empirical[row] = (1.0 + exceeded[real.getTermIndex(row)]) / (1.0 + permutations);
+				// number of permutations with a minimum at or below p
+				int pos = Arrays.binarySearch(sorted, p * (1 + TOLERANCE));
+				int count = pos >= 0 ? pos + 1 : -pos - 1;
+				while (count < permutations && sorted[count] <= p * (1 + TOLERANCE)) count++;
+				familyWise[row] = (1.0 + count) / (1.0 + permutations);
+			}
+		}
+		
+		/** return the enrichment result of the real list */
+		public GoEnrichment.Result getReal() { return real; }
+		
+		public int getPermutations() { return permutations; }
+		
+		public int size() { return real.size(); }
+		
+		/** return the fraction of permutations in which the term of the row did as well as in the real list */
+		public double getEmpiricalPValue(int row) { return empirical[row]; }
+		
+		/** return the fraction of permutations in which any term did as well as the term of the row in the real list */
+		public double getFamilyWisePValue(int row) { return familyWise[row]; }
+	}
+}
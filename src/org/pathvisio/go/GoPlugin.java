@@ -3,6 +3,7 @@ package org.pathvisio.go;
 import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.io.IOException;
 
 import javax.swing.AbstractAction;
 import javax.swing.JButton;
@@ -15,12 +16,14 @@ import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingWorker;
 
+import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperStack;
 import org.bridgedb.bio.BioDataSource;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.pathvisio.core.debug.Logger;
 import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.preferences.GlobalPreference;
 import org.pathvisio.core.preferences.Preference;
 import org.pathvisio.core.preferences.PreferenceManager;
 import org.pathvisio.core.util.ProgressKeeper;
@@ -44,10 +47,13 @@ public final class GoPlugin implements Plugin, BundleActivator
 	private GoAction goAction;
 	private GoBrowseAction browseAction;
 	private JMenu goPluginMenu;
+	private Thread preloader;
 	
 	public void init(PvDesktop desktop) 
 	{
 		this.desktop = desktop;
+		// allows annotation files to be added as gene databases
+		GoAnnotationMapper.register();
 		goPluginMenu = new JMenu("GO plugin");
 		
 		goAction = new GoAction();
@@ -63,10 +69,68 @@ public final class GoPlugin implements Plugin, BundleActivator
 		goPluginMenu.add(browse);
 		
 		desktop.registerSubMenu("Plugins", goPluginMenu);
+		
+		if (PreferenceManager.getCurrent().getBoolean(GoPreference.GO_PLUGIN_PRELOAD)) preload();
 	}
 
+	/**
+	 * Load the ontology in the background, so that it is ready when the user needs it.
+	 * The menu actions wait for this load instead of starting another one, see {@link GoRegistry}.
+	 * Also reads the index of the mapping cache for the current gene database, if there is one.
+	 * {@link #done()} stops the preload by interrupting it.
+	 */
+	private void preload()
+	{
+		final File obo = PreferenceManager.getCurrent().getFile(GoPreference.GO_PLUGIN_OBO_FILE);
+		if (!obo.exists()) return;
+		preloader = new Thread("GO plugin preload")
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					// a single thread, so the rest of the application isn't slowed down.
+					// The parse stops when this thread is interrupted.
+					GoReader reader = GoRegistry.get(obo, false, 1);
+					
+					IDMapperStack gdb = desktop.getSwingEngine().getGdbManager().getCurrentGdb();
+					String gdbIdentity = GoMappingCache.identify(gdb);
+					if (gdbIdentity == null) return;
+					String ds = PreferenceManager.getCurrent().get(GoPreference.GO_PLUGIN_TARGET_DATASOURCE);
+					synchronized (GoPlugin.this)
+					{
+						// not after done() has closed the caches
+						if (preloader != this) return;
+						GoMappingCache.open(gdbIdentity, DataSource.getByFullName(ds), reader.getVersion());
+					}
+				}
+				catch (RuntimeException ex)
+				{
+					if (isInterrupted()) return;
+					// reported again when the user asks for the ontology
+					Logger.log.warn ("Could not preload " + obo, ex);
+				}
+			}
+		};
+		synchronized (this)
+		{
+			preloader.setDaemon(true);
+			preloader.setPriority(Thread.MIN_PRIORITY);
+			preloader.start();
+		}
+	}
+	
 	public void done() {
 		desktop.unregisterSubMenu("Plugins", goPluginMenu);
+		synchronized (this)
+		{
+			if (preloader != null) preloader.interrupt();
+			preloader = null;
+		}
+		// release the ontologies and mapping caches
+		GoRegistry.clear();
+		GoMappingCache.closeAll();
 	}
 
 	private class GoAction extends AbstractAction
@@ -82,11 +146,12 @@ public final class GoPlugin implements Plugin, BundleActivator
 	{		
 		public void actionPerformed(ActionEvent arg0) 
 		{
-			if(!new File(PreferenceManager.getCurrent().get (GoPreference.GO_PLUGIN_OBO_FILE)).exists()) {
+			final File obo = PreferenceManager.getCurrent().getFile(GoPreference.GO_PLUGIN_OBO_FILE);
+			if(!obo.exists()) {
 				//TODO: deal with situation when preference is not set or not correct
 			} else {
-				GoReader reader = new GoReader(PreferenceManager.getCurrent().getFile(GoPreference.GO_PLUGIN_OBO_FILE));
-				BrowseDialog frame = new BrowseDialog(desktop.getFrame(), reader);
+				// shown straight away, the terms are added while the ontology is loaded
+				BrowseDialog frame = new BrowseDialog(desktop.getFrame(), obo);
 				frame.setVisible(true);
 			}
 		}
@@ -96,7 +161,11 @@ public final class GoPlugin implements Plugin, BundleActivator
 	{
 		GO_PLUGIN_GO_ID("GO:0006096"), // go id for glycolysis, useful for testing
 		GO_PLUGIN_OBO_FILE(System.getProperty("user.home") + File.separator + "gene_ontology.obo"), // gene_ontology.obo
-		GO_PLUGIN_TARGET_DATASOURCE(BioDataSource.ENSEMBL.getFullName());
+		GO_PLUGIN_TARGET_DATASOURCE(BioDataSource.ENSEMBL.getFullName()),
+		GO_PLUGIN_PAGE_BUDGET(Long.toString(GoPages.DEFAULT_BUDGET)), // maximum number of elements on one pathway
+		GO_PLUGIN_TIME_BUDGET("0"), // maximum number of seconds to create a pathway, 0 for no limit
+		GO_PLUGIN_ELEMENT_BUDGET("0"), // maximum number of elements to lay out, 0 for no limit
+		GO_PLUGIN_PRELOAD("true"), // load the ontology in the background when the plugin starts
 		;
 
 		private final String defaultVal;
@@ -147,6 +216,27 @@ public final class GoPlugin implements Plugin, BundleActivator
 			return panel;
 		}
 
+		/**
+		 * return the value of a budget preference, or -1 after telling the user 
+		 * that it isn't a whole number of at least min.
+		 */
+		private long getBudget (GoPreference pref, String name, long min)
+		{
+			String value = PreferenceManager.getCurrent().get(pref);
+			try
+			{
+				long result = Long.parseLong(value.trim());
+				if (result >= min) return result;
+			}
+			catch (NumberFormatException ex)
+			{
+				// reported below
+			}
+			JOptionPane.showMessageDialog(this, "The GO plugin " + name + " must be a whole number of at least " 
+					+ min + ", not \"" + value + "\"", "Invalid preference", JOptionPane.ERROR_MESSAGE);
+			return -1;
+		}
+
 		protected void okPressed() 
 		{	
 			PreferenceManager.getCurrent().set (GoPreference.GO_PLUGIN_GO_ID, txtGoId.getText());
@@ -159,32 +249,66 @@ public final class GoPlugin implements Plugin, BundleActivator
 						"Obo File not found", JOptionPane.ERROR_MESSAGE);
 				return;
 			}
-			final GoReader reader = new GoReader(oboF);
-			final GoTerm base = reader.findTerm(id);
-			if (base == null) 
-			{
-				JOptionPane.showMessageDialog(this, "Go Term not found", 
-						"Go Term not found", JOptionPane.ERROR_MESSAGE);
-				return;
-			}
+			final long budget = getBudget(GoPreference.GO_PLUGIN_PAGE_BUDGET, "page budget", 1);
+			if (budget < 0) return;
+			long seconds = getBudget(GoPreference.GO_PLUGIN_TIME_BUDGET, "time budget", 0);
+			if (seconds < 0) return;
+			long elements = getBudget(GoPreference.GO_PLUGIN_ELEMENT_BUDGET, "element budget", 0);
+			if (elements < 0) return;
 
 			final ProgressKeeper pk = new ProgressKeeper(100);
 			final ProgressDialog d = new ProgressDialog(desktop.getFrame(), "", pk, false, true);
+			final GoProgress progress = new GoProgress(pk);
+			if (seconds > 0) progress.setTimeBudget(seconds * 1000);
+			if (elements > 0) progress.setElementBudget(elements);
 
 			SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>()
 			{
 				private Pathway result;
+				private boolean termFound = true;
 				
 				@Override
 				public Void doInBackground()
 				{			
 					try
 					{
+						// waits for the preload if it is still running
+						pk.setTaskName("Loading " + oboF.getName());
+						GoReader reader = GoRegistry.get(oboF);
+						GoTerm base = reader.findTerm(id);
+						if (base == null)
+						{
+							termFound = false;
+							return null;
+						}
+						
 						GoPathway goPwy = new GoPathway();
 		
 						IDMapperStack stack = desktop.getSwingEngine().getGdbManager().getCurrentGdb();
-						result = goPwy.makeGoPathway(reader, base, 
-								stack, stack, pk);
+						GoSubtreeRefs refs = GoPathway.mapSubtree(reader, base, stack, progress);
+						GoSymbolCache symbols = new GoSymbolCache(stack);
+						
+						// split up pathways that would be too big to show, 
+						// the pages are written to file and the first one is opened from there,
+						// so that it is saved and its links lead to the other pages
+						File pageDir = new File (GlobalPreference.getApplicationDir(), "go-pages");
+						GoPages pages = new GoPages(refs, GoPathway.getOutputFile(pageDir, base), budget);
+						if (pages.size() == 1)
+						{
+							result = goPwy.makeGoPathway(refs, symbols, progress, Runtime.getRuntime().availableProcessors());
+						}
+						else
+						{
+							if (!pageDir.exists() && !pageDir.mkdirs()) throw new IOException("Could not create " + pageDir);
+							File first = goPwy.writeGoPages(pages, symbols, progress);
+							result = new Pathway();
+							result.readFromXml(first, true);
+							Logger.log.info ("GO pathway split into " + pages.size() + " pages, written to " + pageDir);
+						}
+					}
+					catch (GoCancelledException ex)
+					{
+						Logger.log.info ("GO Pathway creation stopped: " + ex.getMessage());
 					}
 					catch (Exception ex)
 					{
@@ -202,9 +326,24 @@ public final class GoPlugin implements Plugin, BundleActivator
 				@Override
 				public void done()
 				{
-					SwingEngine se = desktop.getSwingEngine(); 
-					se.getEngine().setWrapper(se.createWrapper());
-					se.getEngine().createVPathway(result);
+					if (!termFound) 
+					{
+						JOptionPane.showMessageDialog(GoPluginFrame.this, "Go Term not found", 
+								"Go Term not found", JOptionPane.ERROR_MESSAGE);
+						return;
+					}
+					if (progress.isOverBudget())
+					{
+						JOptionPane.showMessageDialog(desktop.getFrame(), 
+								progress.getStopReason() + (result == null ? "" : ", the pathway is incomplete"), 
+								"GO Pathway over budget", JOptionPane.WARNING_MESSAGE);
+					}
+					if (result != null)
+					{
+						SwingEngine se = desktop.getSwingEngine(); 
+						se.getEngine().setWrapper(se.createWrapper());
+						se.getEngine().createVPathway(result);
+					}
 					GoPluginFrame.super.okPressed();
 				}
 			};
@@ -0,0 +1,179 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pathvisio.core.util.ProgressKeeper;
+
+/**
+ * Tracks the progress of making a GO pathway, and stops it when it is cancelled or over budget.
+ * <p>
+ * Making a pathway goes through the {@link Stage}s of mapping genes, looking up their 
+ * symbols and laying them out. Each stage has a share of the progress bar of the ProgressKeeper, 
+ * which it fills according to the work it has done, e.g. the number of elements laid out 
+ * out of the number computed beforehand.
+ * <p>
+ * The loops of each stage call {@link #checkpoint()} often, which throws a 
+ * {@link GoCancelledException} once the ProgressKeeper is cancelled, or the time budget 
+ * has run out. The layout also counts its elements with {@link #addElements(int)}, 
+ * to stop before the element budget is exceeded. Can be used from several threads.
+ */
+public final class GoProgress
+{
+	/** the stages of making a pathway, with the part of the progress bar they fill, in percent */
+	public enum Stage
+	{
+		MAPPING (0, 30),
+		SYMBOLS (30, 50),
+		LAYOUT (50, 100);
+		
+		private final int from;
+		private final int to;
+		
+		Stage (int from, int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+	}
+	
+	private final ProgressKeeper pk;
+	private final long start = System.currentTimeMillis();
+	private long deadline = 0;
+	private long maxElements = 0;
+	private final AtomicLong elements = new AtomicLong();
+	private volatile String stopReason = null;
+	private volatile boolean overBudget = false;
+	private Stage stage = Stage.MAPPING;
+	private long stageWork = 1;
+	
+	/**
+	 * @param pk the ProgressKeeper to report to and to check for cancellation, 
+	 * 	or null to only check the budgets.
+	 */
+	public GoProgress (ProgressKeeper pk)
+	{
+		this.pk = pk == null ? new ProgressKeeper(100) : pk;
+	}
+	
+	/** stop after the given number of milliseconds from now, 0 for no limit */
+	public void setTimeBudget (long millis)
+	{
+		deadline = millis <= 0 ? 0 : System.currentTimeMillis() + millis;
+	}
+	
+	/** stop before more than the given number of elements are laid out, 0 for no limit */
+	public void setElementBudget (long maxElements)
+	{
+		this.maxElements = maxElements;
+	}
+	
+	public ProgressKeeper getProgressKeeper()
+	{
+		return pk;
+	}
+	
+	/**
+	 * Start a stage of the work.
+	 * @param totalWork the amount of work in this stage, in any unit, 
+	 * 	as long as {@link #setDone(long)} uses the same.
+	 */
+	public void startStage (Stage stage, String taskName, long totalWork)
+	{
+		checkpoint();
+		this.stage = stage;
+		stageWork = Math.max(totalWork, 1);
+		pk.setTaskName(taskName);
+		setDone(0);
+	}
+	
+	/** report how much of the work of the current stage is done */
+	public void setDone (long done)
+	{
+		double fraction = Math.min(1.0, (double)done / stageWork);
+		double percent = stage.from + (stage.to - stage.from) * fraction;
+		pk.setProgress((int)(percent * pk.getTotalWork() / 100));
+	}
+	
+	/**
+	 * return true if the work should stop, because it was cancelled or because the time 
+	 * budget has run out. 
+	 */
+	public boolean isStopped()
+	{
+		if (stopReason != null) return true;
+		if (pk.isCancelled())
+		{
+			stop ("Cancelled", false);
+		}
+		else if (deadline > 0 && System.currentTimeMillis() > deadline)
+		{
+			stop ("Stopped after " + (System.currentTimeMillis() - start) + " ms, the time budget was used up", true);
+		}
+		return stopReason != null;
+	}
+	
+	/**
+	 * @throws GoCancelledException if the work should stop, see {@link #isStopped()}
+	 */
+	public void checkpoint()
+	{
+		if (isStopped()) throw new GoCancelledException(stopReason, overBudget);
+	}
+	
+	/**
+	 * Count elements that are about to be laid out.
+	 * @throws GoCancelledException if that would go over the element budget, 
+	 * 	in which case they are not counted
+	 */
+	public void addElements (int count)
+	{
+		checkpoint();
+		if (maxElements > 0 && elements.get() + count > maxElements)
+		{
+			stop ("Stopped after " + elements.get() + " elements, the element budget of " + maxElements + " was reached", true);
+			checkpoint();
+		}
+		elements.addAndGet(count);
+	}
+	
+	/** return the number of elements laid out so far */
+	public long getElementCount()
+	{
+		return elements.get();
+	}
+	
+	/** return true if the work was stopped because it went over budget */
+	public boolean isOverBudget()
+	{
+		return stopReason != null && overBudget;
+	}
+	
+	/** return why the work was stopped, or null if it wasn't */
+	public String getStopReason()
+	{
+		return stopReason;
+	}
+	
+	private synchronized void stop (String reason, boolean overBudget)
+	{
+		if (stopReason != null) return;
+		this.overBudget = overBudget;
+		stopReason = reason;
+	}
+}
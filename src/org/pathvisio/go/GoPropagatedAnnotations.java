@@ -0,0 +1,138 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.Arrays;
+
+import org.pathvisio.core.debug.Logger;
+
+/**
+ * Gene annotations propagated up the ontology, following the true path rule: a gene 
+ * annotated with a term is also annotated with all ancestors of that term.
+ * <p>
+ * For each term of a {@link GoGraph} the propagated genes are stored as a {@link GeneBitmap}
+ * of gene numbers from a {@link GoAnnotations} index, so that counts, intersections and unions 
+ * of subtrees don't need to walk the subtree again. The bitmaps are built in a single pass over
+ * the terms in reverse topological order, children before parents. A term that gets all its 
+ * genes from a single child shares the bitmap of that child.
+ * <p>
+ * Annotations with GO ids that are not in the graph, e.g. obsolete terms, are left out.
+ */
+public final class GoPropagatedAnnotations
+{
+	private final GoGraph graph;
+	private final GoAnnotations annotations;
+	private final GeneBitmap[] direct;
+	private final GeneBitmap[] propagated;
+	/** graph index of each term of the annotations, -1 if the graph doesn't have it */
+	private final int[] graphIndex;
+	
+	public GoPropagatedAnnotations (GoGraph graph, GoAnnotations annotations)
+	{
+		this.graph = graph;
+		this.annotations = annotations;
+		int n = graph.size();
+		direct = new GeneBitmap[n];
+		propagated = new GeneBitmap[n];
+		
+		// direct annotations, from the GO term to gene direction of the index
+		int annotated = 0;
+		graphIndex = new int[annotations.getTermCount()];
+		for (int t = 0; t < annotations.getTermCount(); ++t)
+		{
+			int term = graph.indexOf(annotations.getAccession(t));
+			graphIndex[t] = term;
+			if (term < 0) continue;
+			int count = annotations.getGeneCount(t);
+			int[] genes = new int[count];
+			for (int k = 0; k < count; ++k) genes[k] = annotations.getGene(t, k);
+			direct[term] = GeneBitmap.fromSorted(genes, 0, count);
+			annotated++;
+		}
+		
+		// children before parents, so the children are complete when their parent is reached
+		GoClosure closure = graph.getClosure();
+		long[] scratch = new long[(annotations.getGeneCount() + 63) >>> 6];
+		for (int r = n - 1; r >= 0; --r)
+		{
+			int term = closure.getTopologicalOrder(r);
+			GeneBitmap only = direct[term] == null ? GeneBitmap.EMPTY : direct[term];
+			boolean merged = false;
+			for (int k = 0; k < graph.getChildCount(term); ++k)
+			{
+				GeneBitmap child = propagated[graph.getChild(term, k)];
+				// null only for terms in an is_a cycle
+				if (child == null || child.isEmpty() || child == only) continue;
+				if (only.isEmpty()) 
+				{
+					only = child;
+					continue;
+				}
+				if (!merged)
+				{
+					only.orInto(scratch);
+					merged = true;
+				}
+				child.orInto(scratch);
+			}
+			if (merged)
+			{
+				propagated[term] = GeneBitmap.fromWords(scratch, scratch.length);
+				Arrays.fill(scratch, 0);
+			}
+			else
+			{
+				propagated[term] = only;
+			}
+		}
+		for (int i = 0; i < n; ++i)
+		{
+			if (direct[i] == null) direct[i] = GeneBitmap.EMPTY;
+		}
+		Logger.log.info ("Propagated annotations of " + annotated + " GO terms to " + n + " terms");
+	}
+	
+	public GoGraph getGraph() { return graph; }
+	
+	/** return the index that the gene numbers refer to */
+	public GoAnnotations getAnnotations() { return annotations; }
+	
+	/** return the number of genes that the gene numbers range over */
+	public int getGeneCount() { return annotations.getGeneCount(); }
+	
+	/** return the genes annotated with the term itself */
+	public GeneBitmap getDirectGenes(int term) { return direct[term]; }
+	
+	/** return the genes annotated with the term or any of its descendants */
+	public GeneBitmap getGenes(int term) { return propagated[term]; }
+	
+	/** return the graph index of a term number of the annotations, or -1 if it is not in the graph */
+	int getGraphIndex(int annotationTerm) { return graphIndex[annotationTerm]; }
+	
+	public GeneBitmap getDirectGenes(GoTerm term) { return direct[indexOf(term)]; }
+	
+	public GeneBitmap getGenes(GoTerm term) { return propagated[indexOf(term)]; }
+	
+	/** return the number of genes annotated with the term or any of its descendants */
+	public int getGeneCount(GoTerm term) { return propagated[indexOf(term)].cardinality(); }
+	
+	private int indexOf(GoTerm term)
+	{
+		if (term.getGraph() != graph) throw new IllegalArgumentException(term.getId() + " is not from the same ontology");
+		return term.getIndex();
+	}
+}
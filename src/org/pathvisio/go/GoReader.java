@@ -16,180 +16,297 @@
 //
 package org.pathvisio.go;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.pathvisio.obo.OboHandler;
+import org.pathvisio.core.debug.Logger;
 import org.pathvisio.obo.OboReader;
 
 /**
  * The class GoReader contains two methods to read the data of the GO terms. 
+ * <p>
+ * The terms are kept in a compact {@link GoGraph}, GoTerms are views on that graph.
+ * A GoReader doesn't change after it is constructed and can be shared between threads, 
+ * use {@link GoRegistry} to share them.
  */
-public class GoReader implements OboHandler
+public class GoReader
 {
-	private final Set<GoTerm> terms;
-	private final Map<String, GoTerm> idGoTerm;
-	private final Map<GoTerm, Set<String>> goTermParents = new HashMap<GoTerm,Set<String>>();
+	private final GoGraph graph;
+	private final String version;
 	
+	/** Files smaller than this are always parsed on a single thread */
+	private static final long PARALLEL_THRESHOLD = 1024 * 1024;
+	
+	/** approximate size of the chunks that are parsed one after the other on a single thread */
+	private static final long CHUNK_BYTES = 4 * 1024 * 1024;
+	
+	/**
+	 * return the term with the given id, e.g. "GO:0008020", or null if there is no such term.
+	 */
 	public GoTerm findTerm (String id)
 	{
-		return idGoTerm.get(id);
+		int index = graph.indexOf(GoGraph.parseId(id));
+		return index < 0 ? null : graph.getTerm(index);
 	}
 	
+	/**
+	 * return an unmodifiable set of all terms.
+	 */
 	public Set<GoTerm> getTerms()
 	{
-		return terms;
+		return graph.getTerms();
+	}
+	
+	/**
+	 * return the release of the ontology, taken from the data-version or date in the header of the 
+	 * obo file. If the header has neither, the size and modification time of the file are used.
+	 */
+	public String getVersion()
+	{
+		return version;
 	}
 	
+	/**
+	 * return the graph that holds the terms
+	 */
+	public GoGraph getGraph()
+	{
+		return graph;
+	}
+	
+	/**
+	 * Read the terms from the given obo file, using as many threads as there are processors.
+	 * @see #GoReader(File, int, boolean)
+	 */
 	public GoReader (File obo)
+	{
+		this (obo, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Read the terms from the given obo file, keeping all term names in memory.
+	 * @see #GoReader(File, int, boolean)
+	 */
+	public GoReader (File obo, int threads)
+	{
+		this (obo, threads, false);
+	}
+	
+	/**
+	 * Read the terms from the given obo file. If a binary snapshot of an earlier parse
+	 * of the same obo file is available, the terms are read from that snapshot instead,
+	 * which is a lot faster. Otherwise the obo file is parsed and a snapshot is written for
+	 * the next time.
+	 * <p>
+	 * When parsing, the obo file is split into chunks at stanza boundaries, and 
+	 * the chunks are parsed in parallel before the terms are linked together.
+	 * <p>
+	 * In lazy mode only the ids, namespaces, is_a relations and the position of each term in 
+	 * the obo file are loaded up front. Names and other {@link GoTermDetails} are read from the 
+	 * obo file when they are first asked for, and a limited number is cached. 
+	 * This starts faster and uses less memory when only a few terms are looked at.
+	 * No snapshot is written in lazy mode, but an existing one is used.
+	 * @param threads maximum number of threads to use for parsing, 1 to parse on the calling thread.
+	 * @param lazy true to read names and other details on demand
+	 */
+	public GoReader (File obo, int threads, boolean lazy)
 	{		
-		terms = new HashSet<GoTerm>();
-		idGoTerm = new HashMap<String,GoTerm>();
-
-		FileReader fr = null;
-		try {
-			fr = new FileReader(obo);
-			BufferedReader br = new BufferedReader(fr);
-			
-			OboReader.parse(br, this);
-		}		
-		catch(Exception e) 
+		version = readVersion(obo);
+		GoGraph loaded;
+		try
 		{
-			System.out.println("Exception: " + e);
-			e.printStackTrace();
+			loaded = load(obo, threads, lazy);
 		}
-		finally
+		catch (IOException e) 
 		{
-			try	{ fr.close(); }	catch (IOException e) {	/* ignore */ }
+			Logger.log.error ("Could not read " + obo + ", the ontology is empty", e);
+			List<GoTermCollector> none = Collections.emptyList();
+			loaded = GoGraph.build(none, obo, obo.length(), obo.lastModified(), lazy);
 		}
-		
-		/**
-		 * In a for-loop, first for all GoTerms the parents are returned.
-		 * If these parents exist, the second for-loop walks through all these parents. The GoTerm
-		 * of this parent is added (as a value) to a map with current GoTerm (as a key).
-		 * Also, in a map the The GoTerm of this parent is added (as a key) to a map with current 
-		 * GoTerm (as a value).
-		 * So two maps are created: 
-		 * One with the children as a key and the parents as a value.
-		 * And one with the parents as a key and the children as a value.   
-		 */
-		// now loop through all GoTerms
-		for (GoTerm thisTerm : terms)
-		{
-			// get the parents (strings) of this goTerm
-			Set<String> parents = goTermParents.get(thisTerm);
-			System.out.println (thisTerm + "");
-			if (!parents.isEmpty())
-			{
-				// loop through all these parent strings
-				for(String parent : parents)
-				{
-					System.out.println ("P: " + parent + "");
-					// get the goTerm beloning to the parent string (the parent string
-					// contains the id of the parent, the second map contains the id's
-					// with the goterms belonging to this id)
-					GoTerm ouder = idGoTerm.get(parent);
-					// add the found parent GoTerm as a parent for the read GoTerm
-					thisTerm.addParent(ouder);
-					// the read GoTerm is a child of it's parent; so add a child to
-					// the parent GoTerm
-					ouder.addChild(thisTerm);
-				}
-			}
-		}
-			
-		// show a message that everything is read; and return the terms
-		System.out.println("DB read");
+		graph = loaded;
+	}
+	
+	private GoReader (File obo, GoGraph graph)
+	{
+		version = readVersion(obo);
+		this.graph = graph;
 	}
 	
 	/**
-	 * In the method 'getRoots' for a set of GoTerms the roots are returned in a set.
+	 * Read the terms from the given obo file, like {@link #GoReader(File, int, boolean)}, 
+	 * but fail if the file can't be read instead of returning an empty ontology.
+	 * @throws IOException if the file can't be read, or the parse is interrupted
 	 */
+	public static GoReader read (File obo, int threads, boolean lazy) throws IOException
+	{
+		return new GoReader(obo, load(obo, threads, lazy));
+	}
 	
-	public List<GoTerm> getRoots()
+	/** read the graph from a snapshot, or parse it */
+	private static GoGraph load (File obo, int threads, boolean lazy) throws IOException
 	{
-		// create a list for the roots
-		List<GoTerm> roots = new ArrayList<GoTerm>();
-		// walk through the terms to find the roots
-		for (GoTerm term : terms)
+		GoGraph cached = GoSnapshot.read(obo, lazy);
+		if (cached != null)
 		{
-			// if a term has no parents, it's a root
-			if(!term.hasParents()){
-				// add the term as root
-				roots.add(term);
-			}				
+			Logger.log.info ("GO terms read from snapshot " + GoSnapshot.getSnapshotFile(obo));
+			return cached;
 		}
-		// return the root list
-		return roots;
+
+		// remember the state of the file before parsing, to detect changes later on.
+		long length = obo.length();
+		long lastModified = obo.lastModified();
+		List<GoTermCollector> collectors;
+		try 
+		{
+			if (length < PARALLEL_THRESHOLD) threads = 1;
+			collectors = parse(obo, threads, !lazy);
+		}		
+		catch (InterruptedException e) 
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while parsing " + obo);
+		}
+		
+		// merge the chunks, and link parents and children
+		GoGraph result = GoGraph.build(collectors, obo, length, lastModified, lazy);
+			
+		// show a message that everything is read
+		Logger.log.info ("GO terms read: " + result.size());
+		
+		if (!lazy) GoSnapshot.write(obo, result);
+		return result;
 	}
 	
-	String id;
-	String name;
-	String namespace;
-	Set<String> isa;
-	boolean obsolete;
-	String block;
+	/** number of bytes at the start of the obo file that are searched for the header */
+	private static final int HEADER_BYTES = 16 * 1024;
 	
-	@Override
-	public void startBlock(String type)
-	{
-		id = null;
-		name = null;
-		namespace = null;
-		isa = new HashSet<String>();
-		obsolete = false;
-		block = type;
-	}
-
-	@Override
-	public void property(String prop, String value)
+	/**
+	 * Find the data-version or date in the header of an obo file. 
+	 */
+	private static String readVersion (File obo)
 	{
-		if (!block.equals("Term")) return;
-		if (prop.equals("id"))
+		String date = null;
+		FileInputStream fis = null;
+		try
 		{
-			id = value;
+			fis = new FileInputStream(obo);
+			byte[] data = new byte[HEADER_BYTES];
+			int len = 0;
+			int read;
+			while (len < data.length && (read = fis.read(data, len, data.length - len)) > 0) len += read;
+			for (String line : new String(data, 0, len, "UTF-8").split("\r?\n"))
+			{
+				// the header ends at the first empty line
+				if (line.length() == 0) break;
+				if (line.startsWith("data-version:")) return line.substring("data-version:".length()).trim();
+				if (line.startsWith("date:")) date = line.substring("date:".length()).trim();
+			}
 		}
-		else if (prop.equals ("name"))
+		catch (IOException e)
 		{
-			name = value;
+			// fall through, the parse will report the problem
 		}
-		else if (prop.equals ("namespace"))
+		finally
 		{
-			namespace = value;
+			if (fis != null) try { fis.close(); } catch (IOException e) { /* ignore */ }
 		}
-		else if (prop.equals ("is_obsolete"))
+		return date != null ? date : obo.length() + "-" + obo.lastModified();
+	}
+	
+	/**
+	 * Parse the obo file in chunks on a pool of worker threads. 
+	 * @return one collector per chunk, in file order
+	 */
+	private static List<GoTermCollector> parse (File obo, int threads, final boolean keepNames) throws IOException, InterruptedException
+	{
+		FileInputStream fis = new FileInputStream(obo);
+		ExecutorService executor = null;
+		try
 		{
-			obsolete = value.equals("true");
+			FileChannel channel = fis.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			if (threads <= 1)
+			{
+				// in chunks, so that an interrupt can stop the parse in between
+				List<GoTermCollector> result = new ArrayList<GoTermCollector>();
+				for (ByteBuffer chunk : OboReader.split(buf, (int)(channel.size() / CHUNK_BYTES) + 1))
+				{
+					if (Thread.interrupted()) throw new InterruptedException();
+					GoTermCollector collector = new GoTermCollector(keepNames);
+					OboReader.parse(chunk, collector);
+					result.add (collector);
+				}
+				return result;
+			}
+
+			executor = Executors.newFixedThreadPool(threads);
+			List<Future<GoTermCollector>> futures = new ArrayList<Future<GoTermCollector>>();
+			// use a few more chunks than threads, because chunks may differ in size
+			for (final ByteBuffer chunk : OboReader.split(buf, threads * 4))
+			{
+				futures.add (executor.submit(new Callable<GoTermCollector>() {
+					public GoTermCollector call()
+					{
+						GoTermCollector collector = new GoTermCollector(keepNames);
+						OboReader.parse(chunk, collector);
+						return collector;
+					}
+				}));
+			}
+			
+			List<GoTermCollector> result = new ArrayList<GoTermCollector>();
+			for (Future<GoTermCollector> future : futures)
+			{
+				try
+				{
+					result.add (future.get());
+				}
+				catch (ExecutionException e)
+				{
+					if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+					throw new IOException("Error while parsing " + obo, e.getCause());
+				}
+			}
+			return result;
 		}
-		else if (prop.equals("is_a"))
+		finally
 		{
-			// we only need the first ten characters, the GO id. 
-			isa.add (value.substring(0,10));
-		}		
+			if (executor != null) executor.shutdownNow();
+			fis.close();
+		}
 	}
-
-	@Override
-	public void endBlock()
+	
+	/**
+	 * In the method 'getRoots' for a set of GoTerms the roots are returned in a list.
+	 */
+	public List<GoTerm> getRoots()
 	{
-		if (!block.equals("Term")) return;
-		if (!obsolete)
+		// create a list for the roots
+		List<GoTerm> roots = new ArrayList<GoTerm>();
+		// walk through the terms to find the roots
+		for (int i = 0; i < graph.size(); ++i)
 		{
-			// if the term isn't obsolete, create the GoTerm
-			GoTerm newGoTerm = new GoTerm(id,name,namespace);
-			// and add this term to the 'terms' set
-			terms.add(newGoTerm);
-			// and at this term and it's list of parents to the first map
-			goTermParents.put(newGoTerm, isa);
-			// and add this term's id and the term itself to the second map
-			idGoTerm.put(id, newGoTerm);
+			// if a term has no parents, it's a root
+			if (graph.getParentCount(i) == 0)
+			{
+				roots.add(graph.getTerm(i));
+			}				
 		}
+		// return the root list
+		return roots;
 	}
 }
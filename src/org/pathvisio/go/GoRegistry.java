@@ -0,0 +1,307 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+import org.pathvisio.core.debug.Logger;
+
+/**
+ * Process-wide registry of loaded ontologies, so that all parts of the plugin share a 
+ * single GoReader per obo file instead of each parsing the file again.
+ * <p>
+ * Ontologies are keyed on the path, size and modification time of the obo file plus a checksum 
+ * of its first and last bytes, so a changed file is loaded again. When several threads ask for 
+ * the same ontology at the same time, it is loaded only once and the other threads wait for it.
+ * <p>
+ * Loaded ontologies are only softly referenced, so the garbage collector may drop them 
+ * when memory is tight, and at most {@link #MAX_ENTRIES} are kept.
+ */
+public final class GoRegistry
+{
+	private GoRegistry() {} // static utility class, not meant for instantiation.
+	
+	/** maximum number of ontologies kept in the registry */
+	public static final int MAX_ENTRIES = 4;
+	
+	/** number of bytes at the start and end of the file that are included in the checksum */
+	private static final int CHECKSUM_BYTES = 64 * 1024;
+	
+	/**
+	 * An ontology that is either being loaded, or has been loaded.
+	 */
+	private static class Loaded
+	{
+		FutureTask<GoReader> task;
+		SoftReference<GoReader> ref;
+		
+		Loaded(FutureTask<GoReader> task) { this.task = task; }
+	}
+	
+	private static final Map<Key, Loaded> entries = new LinkedHashMap<Key, Loaded>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Loaded> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+	
+	/**
+	 * Get the ontology for the given obo file, with all names loaded.
+	 * @see #get(File, boolean)
+	 */
+	public static GoReader get (File obo)
+	{
+		return get (obo, false);
+	}
+	
+	/**
+	 * Get the ontology for the given obo file, loading it if it isn't in the registry yet. 
+	 * If another thread is already loading the same ontology, wait for that instead.
+	 * The returned GoReader is shared, and must not be modified. 
+	 * @param lazy passed on to {@link GoReader#GoReader(File, int, boolean)}. Lazy and 
+	 * 	non-lazy ontologies are kept separately.
+	 * @throws IllegalStateException if the ontology can't be loaded, in which case the next call 
+	 * 	tries again, or if this thread is interrupted while waiting for another thread to load it.
+	 */
+	public static GoReader get (File obo, boolean lazy)
+	{
+		return get (obo, lazy, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Like {@link #get(File, boolean)}, parsing with the given number of threads if this call 
+	 * loads the ontology. Use 1 to load in the background on a low priority thread, 
+	 * without taking processors away from the rest of the application: 
+	 * other threads that ask for the ontology in the mean time wait for that load.
+	 */
+	public static GoReader get (final File obo, final boolean lazy, final int threads)
+	{
+		Key key = new Key(obo, lazy);
+		FutureTask<GoReader> task = null;
+		boolean owner = false;
+		synchronized (entries)
+		{
+			Loaded entry = entries.get(key);
+			if (entry != null && entry.task != null)
+			{
+				task = entry.task;
+			}
+			else if (entry != null && entry.ref.get() != null)
+			{
+				return entry.ref.get();
+			}
+			else
+			{
+				removeStale (key);
+				task = new FutureTask<GoReader>(new Callable<GoReader>() {
+					public GoReader call() throws IOException
+					{
+						// fails instead of returning an empty ontology, so that it isn't kept
+						return GoReader.read(obo, threads, lazy);
+					}
+				});
+				entries.put(key, new Loaded(task));
+				owner = true;
+			}
+		}
+		
+		if (owner) task.run();
+		GoReader result;
+		try
+		{
+			result = waitFor(task);
+		}
+		catch (InterruptedException e)
+		{
+			// the load goes on for the other threads
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " + obo + " to load", e);
+		}
+		
+		synchronized (entries)
+		{
+			Loaded entry = entries.get(key);
+			if (entry != null && entry.task == task)
+			{
+				if (result == null)
+				{
+					entries.remove(key);
+				}
+				else
+				{
+					entry.ref = new SoftReference<GoReader>(result);
+					entry.task = null;
+				}
+			}
+		}
+		if (result == null) throw new IllegalStateException("Loading " + obo + " failed");
+		return result;
+	}
+	
+	/**
+	 * return true if the ontology for the given obo file is loaded and still in memory.
+	 */
+	public static boolean isLoaded (File obo, boolean lazy)
+	{
+		synchronized (entries)
+		{
+			Loaded entry = entries.get(new Key(obo, lazy));
+			return entry != null && entry.ref != null && entry.ref.get() != null;
+		}
+	}
+	
+	/**
+	 * return true if the ontology for the given obo file is being loaded by another thread,
+	 * in which case {@link #get(File, boolean)} waits for that load.
+	 */
+	public static boolean isLoading (File obo, boolean lazy)
+	{
+		synchronized (entries)
+		{
+			Loaded entry = entries.get(new Key(obo, lazy));
+			return entry != null && entry.task != null;
+		}
+	}
+	
+	/**
+	 * Remove all ontologies from the registry. Loads that are in progress 
+	 * still complete for the threads waiting on them.
+	 */
+	public static void clear()
+	{
+		synchronized (entries)
+		{
+			entries.clear();
+		}
+	}
+	
+	/** remove entries for other versions of the same file */
+	private static void removeStale (Key key)
+	{
+		for (Iterator<Key> it = entries.keySet().iterator(); it.hasNext(); )
+		{
+			Key other = it.next();
+			if (other.path.equals(key.path) && other.lazy == key.lazy && !other.equals(key)) it.remove();
+		}
+	}
+	
+	/**
+	 * Wait for a load to complete.
+	 * @return the loaded ontology, or null if loading failed.
+	 */
+	private static GoReader waitFor (FutureTask<GoReader> task) throws InterruptedException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (ExecutionException e)
+		{
+			Logger.log.error ("Could not load ontology", e.getCause());
+			return null;
+		}
+	}
+	
+	/**
+	 * Identity of an obo file.
+	 */
+	private static final class Key
+	{
+		final String path;
+		final long length;
+		final long lastModified;
+		final long checksum;
+		final boolean lazy;
+		
+		Key (File obo, boolean lazy)
+		{
+			path = obo.getAbsolutePath();
+			length = obo.length();
+			lastModified = obo.lastModified();
+			checksum = checksum(obo);
+			this.lazy = lazy;
+		}
+		
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return path.equals(other.path) && length == other.length && lastModified == other.lastModified 
+				&& checksum == other.checksum && lazy == other.lazy;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return path.hashCode() ^ (int)(lastModified ^ checksum) ^ (lazy ? 1 : 0);
+		}
+	}
+	
+	/**
+	 * CRC32 over the first and last bytes of a file. The header of an obo file contains
+	 * its data-version, so this catches a replaced file with the same size and time stamp.
+	 */
+	private static long checksum (File file)
+	{
+		CRC32 crc = new CRC32();
+		FileInputStream fis = null;
+		try
+		{
+			fis = new FileInputStream(file);
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			update (crc, channel, 0, Math.min(size, CHECKSUM_BYTES));
+			if (size > CHECKSUM_BYTES)
+			{
+				long start = Math.max(CHECKSUM_BYTES, size - CHECKSUM_BYTES);
+				update (crc, channel, start, size - start);
+			}
+		}
+		catch (IOException e)
+		{
+			// file can't be read, it will fail to load as well.
+			return -1;
+		}
+		finally
+		{
+			if (fis != null) try { fis.close(); } catch (IOException e) { /* ignore */ }
+		}
+		return crc.getValue();
+	}
+	
+	private static void update (CRC32 crc, FileChannel channel, long position, long count) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate((int)count);
+		while (buf.hasRemaining() && channel.read(buf, position + buf.position()) >= 0) { }
+		crc.update(buf.array(), 0, buf.position());
+	}
+}
@@ -0,0 +1,227 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.pathvisio.core.debug.Logger;
+
+/**
+ * Binary snapshot of a parsed obo file, so that the ontology doesn't have to be
+ * parsed again each time a GoReader is created.
+ * <p>
+ * The snapshot is stored next to the obo file, and is keyed on the path, size and
+ * modification time of the obo file. If any of these don't match, the snapshot
+ * is considered stale and ignored.
+ * <p>
+ * The snapshot holds the arrays of a {@link GoGraph} as they are, so
+ * loading it is mostly bulk copying. Layout of the file (big-endian):
+ * <pre>
+ * int    magic, int version
+ * string obo path, long obo size, long obo modification time
+ * int    number of terms n
+ * int[n] accessions, byte[n] namespaces, int[n] stanza offsets in the obo file
+ * int[n + 1] parent start, int parent count, int[] parents
+ * int[n + 1] child start, int child count, int[] children
+ * n times string name
+ * </pre>
+ * where a string is an int length followed by that many UTF-8 bytes, or -1 for null.
+ */
+final class GoSnapshot
+{
+	private GoSnapshot() {} // static utility class, not meant for instantiation.
+
+	private static final int MAGIC = 0x474F534E; // "GOSN"
+	private static final int VERSION = 3;
+	private static final String UTF8 = "UTF-8";
+
+	/**
+	 * The file where the snapshot for the given obo file is kept.
+	 */
+	static File getSnapshotFile(File obo)
+	{
+		return new File (obo.getAbsoluteFile().getParentFile(), obo.getName() + ".snapshot");
+	}
+
+	/**
+	 * Read the snapshot for the given obo file.
+	 * @param lazy if true, don't read the term names, they'll be read from the obo file on demand.
+	 * @return the graph in the snapshot, or null if there is no snapshot or if it is out of date.
+	 */
+	static GoGraph read(File obo, boolean lazy)
+	{
+		File snapshot = getSnapshotFile(obo);
+		if (!snapshot.exists()) return null;
+
+		FileInputStream fis = null;
+		try
+		{
+			fis = new FileInputStream(snapshot);
+			FileChannel channel = fis.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION) return null;
+			if (!obo.getAbsolutePath().equals(readString(buf))) return null;
+			if (buf.getLong() != obo.length() || buf.getLong() != obo.lastModified()) return null;
+
+			int n = buf.getInt();
+			int[] accessions = readInts(buf, n);
+			byte[] namespaces = new byte[n];
+			buf.get(namespaces);
+			int[] offsets = readInts(buf, n);
+			int[] parentStart = readInts(buf, n + 1);
+			int[] parents = readInts(buf, buf.getInt());
+			int[] childStart = readInts(buf, n + 1);
+			int[] children = readInts(buf, buf.getInt());
+			String[] names = null;
+			if (!lazy)
+			{
+				names = new String[n];
+				for (int i = 0; i < n; ++i)
+				{
+					names[i] = readString(buf);
+				}
+			}
+			GoStanzaIndex stanzas = new GoStanzaIndex(obo, obo.length(), obo.lastModified(), 
+					offsets, GoStanzaIndex.DEFAULT_CACHE_SIZE);
+			return new GoGraph(accessions, names, namespaces, stanzas, parentStart, parents, childStart, children);
+		}
+		catch (IOException e)
+		{
+			Logger.log.warn ("Could not read GO snapshot " + snapshot, e);
+			return null;
+		}
+		catch (BufferUnderflowException e)
+		{
+			Logger.log.warn ("GO snapshot " + snapshot + " is truncated");
+			return null;
+		}
+		catch (RuntimeException e)
+		{
+			Logger.log.warn ("GO snapshot " + snapshot + " is corrupt", e);
+			return null;
+		}
+		finally
+		{
+			if (fis != null) try { fis.close(); } catch (IOException e) { /* ignore */ }
+		}
+	}
+
+	/**
+	 * Write a snapshot of the given graph for the given obo file. The snapshot is
+	 * first written to a temporary file, so that an interrupted write never leaves a
+	 * corrupt snapshot behind. Failures are logged and otherwise ignored, as the
+	 * snapshot is only a cache.
+	 */
+	static void write(File obo, GoGraph graph)
+	{
+		File snapshot = getSnapshotFile(obo);
+		File temp = new File (snapshot.getPath() + ".tmp");
+
+		DataOutputStream out = null;
+		try
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, obo.getAbsolutePath());
+			out.writeLong(obo.length());
+			out.writeLong(obo.lastModified());
+
+			out.writeInt(graph.size());
+			writeInts(out, graph.getAccessions());
+			out.write(graph.getNamespaces());
+			writeInts(out, graph.getStanzas().getOffsets());
+			writeInts(out, graph.getParentStart());
+			out.writeInt(graph.getParents().length);
+			writeInts(out, graph.getParents());
+			writeInts(out, graph.getChildStart());
+			out.writeInt(graph.getChildren().length);
+			writeInts(out, graph.getChildren());
+			for (String name : graph.getNames())
+			{
+				writeString(out, name);
+			}
+			out.close();
+			out = null;
+
+			if (snapshot.exists() && !snapshot.delete())
+			{
+				throw new IOException("Could not replace " + snapshot);
+			}
+			if (!temp.renameTo(snapshot))
+			{
+				throw new IOException("Could not rename " + temp + " to " + snapshot);
+			}
+		}
+		catch (IOException e)
+		{
+			Logger.log.warn ("Could not write GO snapshot " + snapshot, e);
+			temp.delete();
+		}
+		finally
+		{
+			if (out != null) try { out.close(); } catch (IOException e) { /* ignore */ }
+		}
+	}
+
+	private static int[] readInts(ByteBuffer buf, int count)
+	{
+		int[] result = new int[count];
+		buf.asIntBuffer().get(result);
+		buf.position(buf.position() + count * 4);
+		return result;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException
+	{
+		for (int value : values)
+		{
+			out.writeInt(value);
+		}
+	}
+
+	private static String readString(ByteBuffer buf) throws IOException
+	{
+		int len = buf.getInt();
+		if (len < 0) return null;
+		byte[] data = new byte[len];
+		buf.get(data);
+		return new String (data, UTF8);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		if (s == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] data = s.getBytes(UTF8);
+		out.writeInt(data.length);
+		out.write(data);
+	}
+}
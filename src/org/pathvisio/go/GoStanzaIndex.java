@@ -0,0 +1,149 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.obo.OboReader;
+
+/**
+ * Reads the stanzas of individual terms from an obo file on demand, given the byte 
+ * offset of each stanza. The obo file is memory-mapped the first time a stanza is
+ * needed, and recently used stanzas are kept in a bounded cache.
+ * <p>
+ * If the obo file has changed since the offsets were recorded, no stanzas are read.
+ */
+final class GoStanzaIndex
+{
+	/** default maximum number of stanzas kept in the cache */
+	static final int DEFAULT_CACHE_SIZE = 2048;
+	
+	private final File obo;
+	private final long length;
+	private final long lastModified;
+	private final int[] offsets;
+	private final Map<Integer, GoTermDetails> cache;
+	
+	private ByteBuffer buf = null;
+	private boolean unavailable = false;
+	
+	/**
+	 * @param obo the obo file
+	 * @param length length of the obo file when the offsets were recorded
+	 * @param lastModified modification time of the obo file when the offsets were recorded
+	 * @param offsets byte offset in the obo file of the stanza of each term, indexed as in the GoGraph
+	 */
+	GoStanzaIndex(File obo, long length, long lastModified, int[] offsets, final int cacheSize)
+	{
+		this.obo = obo;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.offsets = offsets;
+		this.cache = new LinkedHashMap<Integer, GoTermDetails>(16, 0.75f, true) 
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, GoTermDetails> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+	}
+	
+	int[] getOffsets()
+	{
+		return offsets;
+	}
+	
+	/**
+	 * return the details of the term with the given index and accession number, 
+	 * or null if they can't be read.
+	 */
+	synchronized GoTermDetails get(int term, int accession)
+	{
+		GoTermDetails result = cache.get(term);
+		if (result != null) return result;
+		
+		ByteBuffer data = map();
+		if (data == null) return null;
+		
+		int start = offsets[term];
+		if (start < 0 || start >= data.limit()) return null;
+		// the stanza ends at the first empty line
+		int limit = data.limit();
+		int end = start;
+		while (end < limit)
+		{
+			int eol = end;
+			while (eol < limit && data.get(eol) != '\n' && data.get(eol) != '\r') eol++;
+			if (eol == end) break;
+			end = eol + 1;
+			if (end < limit && data.get(eol) == '\r' && data.get(end) == '\n') end++;
+		}
+		end = Math.min(end, limit);
+		
+		ByteBuffer stanza = data.duplicate();
+		stanza.limit(end);
+		stanza.position(start);
+		GoTermDetails.Collector collector = new GoTermDetails.Collector();
+		OboReader.parse(stanza, collector);
+		if (collector.getId() != accession)
+		{
+			Logger.log.warn ("Stanza at offset " + start + " in " + obo + 
+					" is not " + GoGraph.formatId(accession));
+			return null;
+		}
+		result = collector.getDetails();
+		cache.put (term, result);
+		return result;
+	}
+	
+	private ByteBuffer map()
+	{
+		if (buf != null || unavailable) return buf;
+		if (obo.length() != length || obo.lastModified() != lastModified)
+		{
+			Logger.log.warn (obo + " has changed since it was indexed, term details are not available");
+			unavailable = true;
+			return null;
+		}
+		
+		FileInputStream fis = null;
+		try
+		{
+			fis = new FileInputStream(obo);
+			FileChannel channel = fis.getChannel();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		catch (IOException e)
+		{
+			Logger.log.warn ("Could not map " + obo, e);
+			unavailable = true;
+		}
+		finally
+		{
+			if (fis != null) try { fis.close(); } catch (IOException e) { /* ignore */ }
+		}
+		return buf;
+	}
+}
@@ -0,0 +1,186 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * The genes of every term in the subtree below a GO term, computed in a single bottom-up
+ * pass and remembered, so that they can be asked for again and again without going back 
+ * to the mapper. 
+ * <p>
+ * For each term there are two sets: the genes mapped to the term directly, and the
+ * genes mapped to the term or any of its descendants. Each term is mapped exactly once, 
+ * also when it can be reached through more than one path, and the mapper is queried 
+ * in batches, see {@link GoMap#getRefs(java.util.Collection, IDMapper, DataSource)}. 
+ */
+public class GoSubtreeRefs 
+{
+	private final GoTerm base;
+	private final Set<Xref>[] direct;
+	private final Set<Xref>[] recursive;
+	/** the terms of the subtree, parents before children */
+	private final int[] order;
+	
+	/**
+	 * Map all terms in the subtree below base (including base itself) to genes.
+	 * @param dest the DataSource to map to, e.g. Ensembl.
+	 */
+	public GoSubtreeRefs(GoTerm base, IDMapper mapper, DataSource dest) throws IDMapperException
+	{
+		this (base, mapper, dest, null);
+	}
+	
+	/**
+	 * Map all terms in the subtree below base (including base itself) to genes, 
+	 * using the cache for terms that were mapped before.
+	 * @param dest the DataSource to map to, e.g. Ensembl.
+	 * @param cache the cache for this mapper and DataSource, or null to not use a cache
+	 */
+	public GoSubtreeRefs(GoTerm base, IDMapper mapper, DataSource dest, GoMappingCache cache) throws IDMapperException
+	{
+		this (base, mapper, dest, cache, null);
+	}
+	
+	/**
+	 * Map all terms in the subtree below base (including base itself) to genes, 
+	 * using the cache for terms that were mapped before, and reporting the number 
+	 * of terms mapped to progress.
+	 * @param progress the progress of the mapping stage, or null
+	 * @throws GoCancelledException if progress is stopped
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public GoSubtreeRefs(GoTerm base, IDMapper mapper, DataSource dest, GoMappingCache cache, GoProgress progress) throws IDMapperException
+	{
+		this.base = base;
+		GoGraph graph = base.getGraph();
+		GoClosure closure = graph.getClosure();
+		direct = new Set[graph.size()];
+		recursive = new Set[graph.size()];
+
+		int root = base.getIndex();
+		int count = closure.getDescendantCount(root);
+		int[] subtree = new int[count + 1];
+		subtree[0] = root;
+		for (int k = 0; k < count; ++k)
+		{
+			subtree[k + 1] = closure.getDescendant(root, k);
+		}
+		
+		Map<GoTerm, Set<Xref>> mapped = GoMap.getSubtreeRefs(Collections.singleton(base), mapper, dest, cache, progress);
+		for (Map.Entry<GoTerm, Set<Xref>> e : mapped.entrySet())
+		{
+			direct[e.getKey().getIndex()] = e.getValue();
+		}
+		
+		// children come after their parents in topological order, so going through
+		// the subtree in reverse topological order, children are always done first.
+		int[] byRank = new int[subtree.length];
+		for (int i = 0; i < subtree.length; ++i)
+		{
+			byRank[i] = closure.getTopologicalRank(subtree[i]);
+		}
+		Arrays.sort(byRank);
+		order = new int[byRank.length];
+		for (int i = 0; i < byRank.length; ++i)
+		{
+			order[i] = closure.getTopologicalOrder(byRank[i]);
+		}
+		for (int i = order.length - 1; i >= 0; --i)
+		{
+			recursive[order[i]] = union(graph, order[i]);
+		}
+	}
+	
+	/**
+	 * Combine the direct genes of a term with the recursive genes of its children. 
+	 * When only one of these is non-empty, that set is shared instead of copied.
+	 */
+	private Set<Xref> union (GoGraph graph, int term)
+	{
+		Set<Xref> single = direct[term].isEmpty() ? null : Collections.unmodifiableSet(direct[term]);
+		Set<Xref> result = null;
+		for (int k = 0; k < graph.getChildCount(term); ++k)
+		{
+			Set<Xref> childSet = recursive[graph.getChild(term, k)];
+			if (childSet.isEmpty() || childSet == single) continue;
+			if (single == null)
+			{
+				single = childSet;
+				continue;
+			}
+			if (result == null) result = new HashSet<Xref>(single);
+			result.addAll(childSet);
+		}
+		if (result != null) return Collections.unmodifiableSet(result);
+		if (single != null) return single;
+		return Collections.emptySet();
+	}
+	
+	/** return the term at the top of the subtree */
+	public GoTerm getBase()
+	{
+		return base;
+	}
+	
+	/** return the number of terms in the subtree, including the base */
+	int size()
+	{
+		return order.length;
+	}
+	
+	/** 
+	 * return the graph index of the k-th term of the subtree in topological order, 
+	 * so parents come before their children. 
+	 */
+	int getTerm(int k)
+	{
+		return order[k];
+	}
+	
+	/**
+	 * return the genes mapped directly to a term in the subtree.
+	 */
+	public Set<Xref> getRefs(GoTerm term)
+	{
+		return get(direct, term);
+	}
+	
+	/**
+	 * return the genes mapped to a term in the subtree or any of its descendants.
+	 */
+	public Set<Xref> getRefsRecursive(GoTerm term)
+	{
+		return get(recursive, term);
+	}
+	
+	private Set<Xref> get(Set<Xref>[] sets, GoTerm term)
+	{
+		Set<Xref> result = term.getGraph() == base.getGraph() ? sets[term.getIndex()] : null;
+		if (result == null) throw new IllegalArgumentException(term.getId() + " is not below " + base.getId());
+		return result;
+	}
+}
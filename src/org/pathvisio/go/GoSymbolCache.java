@@ -0,0 +1,171 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.pathvisio.core.debug.Logger;
+import org.pathvisio.core.util.Utils;
+
+/**
+ * Looks up the gene symbols used as labels in a GO pathway, and remembers them. 
+ * <p>
+ * Call {@link #prefetch(Collection)} with all genes of a pathway first: the symbols are 
+ * then looked up in batches on a small pool of worker threads, so that laying out 
+ * the pathway only needs to read them from memory. The cache can be shared between 
+ * pathways and threads.
+ */
+public class GoSymbolCache
+{
+	/** number of genes looked up by one task */
+	static final int BATCH_SIZE = 100;
+	
+	/** maximum number of threads that query the AttributeMapper at the same time */
+	static final int MAX_THREADS = 4;
+	
+	private final AttributeMapper adb;
+	private final ConcurrentMap<Xref, String> symbols = new ConcurrentHashMap<Xref, String>();
+	
+	public GoSymbolCache(AttributeMapper adb)
+	{
+		this.adb = adb;
+	}
+	
+	/**
+	 * Look up the symbols of all given genes that are not in the cache yet.
+	 * Returns when all of them are done.
+	 */
+	public void prefetch (Collection<Xref> refs)
+	{
+		prefetch (refs, null);
+	}
+	
+	/**
+	 * Like {@link #prefetch(Collection)}, reporting the number of genes looked up to progress.
+	 * @param progress the progress of the symbol stage, or null
+	 * @throws GoCancelledException if progress is stopped
+	 */
+	public void prefetch (Collection<Xref> refs, final GoProgress progress)
+	{
+		final List<Xref> todo = new ArrayList<Xref>();
+		for (Xref ref : refs)
+		{
+			if (!symbols.containsKey(ref)) todo.add(ref);
+		}
+		if (todo.isEmpty()) return;
+		
+		int threads = Math.min(MAX_THREADS, Math.min(Runtime.getRuntime().availableProcessors(),
+				(todo.size() + BATCH_SIZE - 1) / BATCH_SIZE));
+		if (threads <= 1)
+		{
+			int done = refs.size() - todo.size();
+			for (Xref ref : todo)
+			{
+				if (progress != null && done++ % BATCH_SIZE == 0)
+				{
+					progress.checkpoint();
+					progress.setDone(done);
+				}
+				lookup(ref);
+			}
+			return;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int start = 0; start < todo.size(); start += BATCH_SIZE)
+			{
+				final List<Xref> batch = todo.subList(start, Math.min(start + BATCH_SIZE, todo.size()));
+				futures.add (executor.submit(new Callable<Void>() {
+					public Void call()
+					{
+						for (Xref ref : batch) 
+						{
+							if (progress != null && progress.isStopped()) break;
+							lookup(ref);
+						}
+						return null;
+					}
+				}));
+			}
+			int done = refs.size() - todo.size();
+			for (Future<?> future : futures)
+			{
+				future.get();
+				done += BATCH_SIZE;
+				if (progress != null)
+				{
+					progress.checkpoint();
+					progress.setDone(done);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// the remaining symbols are looked up one by one when needed
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			Logger.log.warn ("Failed lookup of gene symbols", e.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * return the symbol of a gene, or its id if it has no symbol. 
+	 * Looks the symbol up if it wasn't prefetched.
+	 */
+	public String getSymbol (Xref ref)
+	{
+		String result = symbols.get(ref);
+		return result != null ? result : lookup(ref);
+	}
+	
+	private String lookup (Xref ref)
+	{
+		String symbol = null;
+		try
+		{
+			symbol = Utils.oneOf(adb.getAttributes(ref, "Symbol")); 
+		}
+		catch (IDMapperException ex)
+		{
+			Logger.log.warn ("Failed lookup of gene symbol", ex);
+		}
+		if (symbol == null) symbol = ref.getId();
+		symbols.put(ref, symbol);
+		return symbol;
+	}
+}
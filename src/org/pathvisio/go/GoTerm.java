@@ -16,37 +16,35 @@
 //
 package org.pathvisio.go;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * Class to create the object "GoTerm";
  * a GoTerm is a Gene Ontology Term, which has compulsory name, id and namespace;
  * and optional parents, children and genes. 
+ * <p>
+ * A GoTerm is a light-weight view on one term of a {@link GoGraph}. 
+ * Two GoTerms are equal if they refer to the same term in the same graph.
  */
 public class GoTerm 
 {
 
-	private String id;
-	private String name;
-	private String namespace;
-	private Set<GoTerm> parents = new HashSet<GoTerm>();
-	private List<GoTerm> children = new ArrayList<GoTerm>();
+	private final GoGraph graph;
+	private final int index;
 //	private Set<String> genes = new HashSet<String>();
 	
 	/**
-	 * Constructor. Create a new GoTerm, giving the id of the term,
-	 * the name and the namespace.
-	 * 
-	 * e.g. GoTerm newTerm = new GoTerm(id,name,namespace);
-	 * ---> GoTerm newTerm = new GoTerm("GO:0048745","smooth muscle development","biological_process");
+	 * Constructor. Create a view on the term with the given index in a GoGraph.
+	 * Use {@link GoGraph#getTerm(int)} or {@link GoReader#findTerm(String)} to obtain GoTerms. 
 	 */
-	public GoTerm(String id, String name, String namespace){
-		this.id = id;
-		this.name = name;
-		this.namespace = namespace;
+	GoTerm(GoGraph graph, int index){
+		this.graph = graph;
+		this.index = index;
 	}
 	
 	/**
@@ -89,52 +87,106 @@ public class GoTerm
 //	}
 	
 	/**
-	 * add a (GoTerm) child to the GoTerm
+	 * return the graph this GoTerm belongs to
 	 */
-	public void addChild(GoTerm child){
-		this.children.add(child);
+	public GoGraph getGraph(){
+		return graph;
 	}
 	
 	/**
-	 * add a (GoTerm) parent to the GoTerm
+	 * return the index of this GoTerm in its graph
 	 */
-	public void addParent(GoTerm parent){
-		this.parents.add(parent);
+	public int getIndex(){
+		return index;
 	}
 	
 	/**
-	 * return the id of the GoTerm
+	 * return the id of the GoTerm, e.g. "GO:0048745"
 	 */
 	public String getId(){
-		return id;
+		return GoGraph.formatId(graph.getAccession(index));
+	}
+	
+	/**
+	 * return the accession number of the GoTerm, e.g. 48745 for GO:0048745
+	 */
+	public int getAccession(){
+		return graph.getAccession(index);
 	}
 	
 	/**
 	 * return the name of the GoTerm
 	 */
 	public String getName(){
-		return name;	
+		return graph.getName(index);	
+	}
+	
+	/**
+	 * return the name, definition, synonyms and xrefs of the GoTerm, 
+	 * as read from the obo file, or null if the obo file is not available.
+	 */
+	public GoTermDetails getDetails(){
+		return graph.getDetails(index);
 	}
 	
 	/**
 	 * return the namespace of the GoTerm
 	 */
-	public String getNamespace(){
-		return namespace;	
+	public GoNamespace getNamespace(){
+		return graph.getNamespace(index);	
 	}
 	
 	/**
-	 * return a set of GoTerms containing all the parents of the GoTerm
+	 * return a set of GoTerms containing all the parents of the GoTerm.
+	 * The set is an unmodifiable view on the graph. 
 	 */
 	public Set<GoTerm> getParents(){
-		return parents;
+		return new AbstractSet<GoTerm>() 
+		{
+			@Override
+			public Iterator<GoTerm> iterator()
+			{
+				return new Iterator<GoTerm>() 
+				{
+					private int next = 0;
+					public boolean hasNext() { return next < size(); }
+					public GoTerm next()
+					{
+						if (next >= size()) throw new NoSuchElementException();
+						return graph.getTerm(graph.getParent(index, next++));
+					}
+					public void remove() { throw new UnsupportedOperationException(); }
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return graph.getParentCount(index);
+			}
+		};
 	}
 	
 	/**
-	 * return a set of GoTerms containing all the children of the GoTerm
+	 * return a list of GoTerms containing all the children of the GoTerm.
+	 * The list is an unmodifiable view on the graph. 
 	 */
 	public List<GoTerm> getChildren(){
-		return children;
+		return new AbstractList<GoTerm>()
+		{
+			@Override
+			public GoTerm get(int k)
+			{
+				if (k < 0 || k >= size()) throw new IndexOutOfBoundsException("" + k);
+				return graph.getTerm(graph.getChild(index, k));
+			}
+
+			@Override
+			public int size()
+			{
+				return graph.getChildCount(index);
+			}
+		};
 	}
 
 	/**
@@ -142,7 +194,7 @@ public class GoTerm
 	 * if so, return 'true', else return 'false'
 	 */
 	public boolean hasParents(){
-		return !parents.isEmpty();
+		return graph.getParentCount(index) > 0;
 	}
 	
 	/**
@@ -150,12 +202,26 @@ public class GoTerm
 	 * if so, return 'true', else return 'false'
 	 */
 	public boolean hasChildren(){
-		return !children.isEmpty();
+		return graph.getChildCount(index) > 0;
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof GoTerm)) return false;
+		GoTerm other = (GoTerm)o;
+		return other.graph == graph && other.index == index;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return index;
 	}
 	
 	@Override
 	public String toString()
 	{
-		return name;
+		return getName();
 	}
 }
@@ -0,0 +1,142 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pathvisio.obo.OboSliceHandler;
+
+/**
+ * Obo handler that collects the non-obsolete terms of (a part of) an obo file, 
+ * together with the accession numbers of their parents. The terms are not linked 
+ * to each other yet, that is done by 
+ * {@link GoGraph#build(List, java.io.File, long, long, boolean)} once all parts 
+ * have been collected.
+ * <p>
+ * Terms with an id that is not a GO id are skipped.
+ */
+class GoTermCollector implements OboSliceHandler
+{
+	private final boolean keepNames;
+	private final IntList accessions = new IntList();
+	private final IntList offsets = new IntList();
+	private final List<String> names = new ArrayList<String>();
+	private final List<GoNamespace> namespaces = new ArrayList<GoNamespace>();
+	// parent accessions of term j are at parentStart[j] up to parentStart[j + 1]
+	private final IntList parentStart = new IntList();
+	private final IntList parentAccessions = new IntList();
+	
+	private int id;
+	private int offset;
+	private String name;
+	private GoNamespace namespace;
+	private boolean obsolete;
+	private String block;
+	
+	/**
+	 * @param keepNames false to skip the names, which saves time and memory 
+	 * 	when they're going to be read from the obo file on demand.
+	 */
+	GoTermCollector(boolean keepNames)
+	{
+		this.keepNames = keepNames;
+		parentStart.add(0);
+	}
+	
+	int size() { return accessions.size(); }
+	int getAccession(int j) { return accessions.get(j); }
+	String getName(int j) { return keepNames ? names.get(j) : null; }
+	/** return the byte offset of the stanza of term j in the obo file */
+	int getOffset(int j) { return offsets.get(j); }
+	GoNamespace getNamespace(int j) { return namespaces.get(j); }
+	int getParentStart(int j) { return parentStart.get(j); }
+	int getParentAccession(int p) { return parentAccessions.get(p); }
+	
+	public void startBlock(String type)
+	{
+		startBlock(type, -1);
+	}
+	
+	public void startBlock(String type, int offset)
+	{
+		this.offset = offset;
+		id = -1;
+		name = null;
+		namespace = null;
+		obsolete = false;
+		block = type;
+		// forget the parents of a block that was never ended
+		parentAccessions.truncate(parentStart.get(parentStart.size() - 1));
+	}
+
+	public void property(String prop, String value)
+	{
+		property (prop, (CharSequence)value);
+	}
+
+	public void property(String prop, CharSequence value)
+	{
+		if (!block.equals("Term")) return;
+		if (prop.equals("id"))
+		{
+			id = GoGraph.parseId(value);
+		}
+		else if (prop.equals ("name"))
+		{
+			if (keepNames) name = value.toString();
+		}
+		else if (prop.equals ("namespace"))
+		{
+			namespace = GoNamespace.fromName(value.toString());
+		}
+		else if (prop.equals ("is_obsolete"))
+		{
+			obsolete = "true".contentEquals(value);
+		}
+		else if (prop.equals("is_a"))
+		{
+			// only the GO id at the start of the value is needed.
+			int parent = GoGraph.parseId(value);
+			int termStart = parentStart.get(parentStart.size() - 1);
+			if (parent >= 0 && !parentAccessions.contains(parent, termStart))
+			{
+				parentAccessions.add(parent);
+			}
+		}		
+	}
+
+	public void endBlock()
+	{
+		if (!block.equals("Term")) return;
+		if (!obsolete && id >= 0)
+		{
+			// if the term isn't obsolete, store it with its parents
+			accessions.add(id);
+			offsets.add(offset);
+			if (keepNames) names.add(name);
+			namespaces.add(namespace);
+			parentStart.add(parentAccessions.size());
+		}
+		else
+		{
+			parentAccessions.truncate(parentStart.get(parentStart.size() - 1));
+		}
+		// a second blank line should not add the term again
+		block = "";
+	}
+}
@@ -0,0 +1,136 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.pathvisio.obo.OboSliceHandler;
+
+/**
+ * The descriptive fields of a GO term stanza: name, definition, synonyms and xrefs.
+ * These are not kept in the {@link GoGraph}, but read from the obo file when needed.
+ */
+public final class GoTermDetails
+{
+	private final String name;
+	private final String definition;
+	private final List<String> synonyms;
+	private final List<String> xrefs;
+	
+	GoTermDetails(String name, String definition, List<String> synonyms, List<String> xrefs)
+	{
+		this.name = name;
+		this.definition = definition;
+		this.synonyms = Collections.unmodifiableList(synonyms);
+		this.xrefs = Collections.unmodifiableList(xrefs);
+	}
+	
+	/** return the name of the term */
+	public String getName() { return name; }
+	
+	/** return the text of the definition, without quotes and references, or null if there is none */
+	public String getDefinition() { return definition; }
+	
+	/** return the text of each synonym, without quotes, scope or references */
+	public List<String> getSynonyms() { return synonyms; }
+	
+	/** return the xrefs of the term, e.g. "Reactome:R-HSA-70171" */
+	public List<String> getXrefs() { return xrefs; }
+	
+	/**
+	 * Collects the details of a single stanza.
+	 */
+	static class Collector implements OboSliceHandler
+	{
+		private int id = -1;
+		private String name;
+		private String definition;
+		private final List<String> synonyms = new ArrayList<String>();
+		private final List<String> xrefs = new ArrayList<String>();
+		
+		public void startBlock(String block, int offset) { }
+		public void startBlock(String block) { }
+		public void endBlock() { }
+		
+		public void property(String prop, String value)
+		{
+			property (prop, (CharSequence)value);
+		}
+		
+		public void property(String prop, CharSequence value)
+		{
+			if (prop.equals("id"))
+			{
+				id = GoGraph.parseId(value);
+			}
+			else if (prop.equals("name"))
+			{
+				name = value.toString();
+			}
+			else if (prop.equals("def"))
+			{
+				definition = unquote(value.toString());
+			}
+			else if (prop.equals("synonym"))
+			{
+				synonyms.add(unquote(value.toString()));
+			}
+			else if (prop.equals("xref"))
+			{
+				String xref = value.toString();
+				int space = xref.indexOf(' ');
+				xrefs.add(space < 0 ? xref : xref.substring(0, space));
+			}
+		}
+		
+		int getId() { return id; }
+		
+		GoTermDetails getDetails()
+		{
+			return new GoTermDetails(name, definition, synonyms, xrefs);
+		}
+	}
+	
+	/**
+	 * return the text of the quoted string at the start of an obo value, 
+	 * e.g. "text" [refs] -> text. Values that don't start with a quote are returned as is.
+	 */
+	static String unquote(String value)
+	{
+		if (!value.startsWith("\"")) return value;
+		StringBuilder result = new StringBuilder();
+		for (int i = 1; i < value.length(); ++i)
+		{
+			char ch = value.charAt(i);
+			if (ch == '\\' && i + 1 < value.length())
+			{
+				result.append(value.charAt(++i));
+			}
+			else if (ch == '"')
+			{
+				break;
+			}
+			else
+			{
+				result.append(ch);
+			}
+		}
+		return result.toString();
+	}
+}
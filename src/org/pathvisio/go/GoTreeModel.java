@@ -16,32 +16,281 @@
 //
 package org.pathvisio.go;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import javax.swing.Timer;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 
+import org.pathvisio.core.debug.Logger;
+
 
 /**
- * A simple static TreeModel for displaying the Gene Ontology as a tree.
+ * A TreeModel for displaying the Gene Ontology as a tree.
+ * <p>
+ * The model is either static, with all terms available from the start, or it loads the ontology 
+ * in the background with {@link #GoTreeModel(File)}. In that case it is empty until the ontology 
+ * is loaded, then the roots are added. The children of a term are only added when they 
+ * are asked for with {@link #loadChildren(TreePath)}, e.g. when the term is expanded: 
+ * their names are read on a background thread, which may have to go to the obo file for a lazily 
+ * loaded ontology. The names are kept by the model, show them with {@link #getLabel(Object)}
+ * so the event dispatch thread never has to read them.
+ * <p>
+ * Additions are collected and passed to the listeners as TreeModelEvents on the event 
+ * dispatch thread, at most every {@link #COALESCE_DELAY} milliseconds. Apart from the 
+ * constructors and {@link #loadChildren(TreePath)}, the model must only be used on the 
+ * event dispatch thread.
  */
 public class GoTreeModel implements TreeModel 
 {
+	/** milliseconds that additions are collected before the listeners are told about them */
+	static final int COALESCE_DELAY = 50;
 	
-	List<GoTerm> roots;
+	/** the root of the tree, its label shows whether the ontology is loaded */
+	private static class Top
+	{
+		String label;
+		
+		Top (String label) { this.label = label; }
+		
+		@Override
+		public String toString() { return label; }
+	}
+	
+	private final Top top = new Top("Gene Ontology");
+	private List<GoTerm> roots = Collections.emptyList();
+	/** the children that have been added so far, or null for a static model */
+	private final Map<GoTerm, List<GoTerm>> children;
+	private final EventListenerList listeners = new EventListenerList();
 	
-	String top = "Gene Ontology";
+	// for loading in the background
+	private ExecutorService loader;
+	private Timer timer;
+	/** the children loaded since the last time the listeners were told, by parent */
+	private final Map<Object, List<GoTerm>> pending = new LinkedHashMap<Object, List<GoTerm>>();
+	/** the terms that have been asked for, with all paths they were asked for */
+	private final Map<GoTerm, List<TreePath>> requested = new HashMap<GoTerm, List<TreePath>>();
+	/** the names of all terms that have been added, read on the loader thread */
+	private final Map<GoTerm, String> names = new ConcurrentHashMap<GoTerm, String>();
 	
+	/**
+	 * Create a static model with the given roots, the terms must all be loaded.
+	 */
 	public GoTreeModel (List<GoTerm> roots)
 	{
 		this.roots = roots;
+		children = null;
 	}
 	
-	public void addTreeModelListener(TreeModelListener arg0) 
+	/**
+	 * Create a model that is empty at first, and loads the ontology of the given obo file 
+	 * in the background. An ontology that is in the {@link GoRegistry} already, or that is being 
+	 * loaded by another thread, is waited for. Otherwise it is loaded lazily, so the roots can be 
+	 * shown as soon as possible.
+	 */
+	public GoTreeModel (final File obo)
 	{
-		// TODO Auto-generated method stub
+		children = new HashMap<GoTerm, List<GoTerm>>();
+		top.label = "Gene Ontology (loading " + obo.getName() + "...)";
+		loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread result = new Thread(r, "GO tree loader");
+				result.setDaemon(true);
+				return result;
+			}
+		});
+		timer = new Timer(COALESCE_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e)
+			{
+				flush();
+			}
+		});
+		timer.setRepeats(false);
 		
+		loader.execute(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					// don't parse the file a second time while it is loaded already, e.g. by the plugin preload
+					boolean eager = GoRegistry.isLoaded(obo, false) || GoRegistry.isLoading(obo, false);
+					GoReader reader = eager ? GoRegistry.get(obo) : GoRegistry.get(obo, true);
+					List<GoTerm> roots = reader.getRoots();
+					for (GoTerm root : roots) names.put(root, root.getName());
+					post (top, roots);
+				}
+				catch (RuntimeException ex)
+				{
+					Logger.log.error ("Could not load " + obo, ex);
+					post (top, null);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Add the children of the last term of the path, if they haven't been added yet.
+	 * Does nothing for a static model. Can be called from any thread.
+	 */
+	public void loadChildren (TreePath path)
+	{
+		if (children == null || !(path.getLastPathComponent() instanceof GoTerm)) return;
+		final GoTerm term = (GoTerm)path.getLastPathComponent();
+		synchronized (pending)
+		{
+			if (loader == null) return;
+			List<TreePath> paths = requested.get(term);
+			if (paths != null)
+			{
+				// asked for in another place in the tree, the listeners are told about this place 
+				// as well unless the children have been added already.
+				if (!paths.contains(path)) paths.add(path);
+				return;
+			}
+			paths = new ArrayList<TreePath>();
+			paths.add(path);
+			requested.put(term, paths);
+			loader.execute(new Runnable() {
+				public void run()
+				{
+					List<GoTerm> result = new ArrayList<GoTerm>(term.getChildren());
+					// read the names now, and not on the event dispatch thread
+					for (GoTerm child : result) names.put(child, child.getName());
+					post (term, result);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Stop loading in the background. The model keeps the terms that were added already.
+	 */
+	public void dispose()
+	{
+		synchronized (pending)
+		{
+			if (loader == null) return;
+			loader.shutdownNow();
+			loader = null;
+			pending.clear();
+		}
+		timer.stop();
+		names.clear();
+	}
+	
+	/** add the children of the root or a term, null if loading failed */
+	private void post (Object parent, List<GoTerm> result)
+	{
+		synchronized (pending)
+		{
+			if (loader == null) return;
+			pending.put(parent, result);
+			if (!timer.isRunning()) timer.start();
+		}
+	}
+	
+	/** add the pending children to the tree, and tell the listeners. */
+	private void flush()
+	{
+		Map<Object, List<GoTerm>> added;
+		Map<Object, List<TreePath>> paths = new HashMap<Object, List<TreePath>>();
+		synchronized (pending)
+		{
+			added = new LinkedHashMap<Object, List<GoTerm>>(pending);
+			pending.clear();
+			for (Object parent : added.keySet())
+			{
+				// a term can be in several places in the tree, tell the listeners about each of them
+				paths.put(parent, parent == top ? Collections.singletonList(new TreePath(top)) 
+						: new ArrayList<TreePath>(requested.get(parent)));
+			}
+		}
+		for (Map.Entry<Object, List<GoTerm>> entry : added.entrySet())
+		{
+			Object parent = entry.getKey();
+			List<GoTerm> terms = entry.getValue();
+			if (parent == top)
+			{
+				top.label = terms == null ? "Gene Ontology (could not be loaded)" : "Gene Ontology";
+				fireTreeNodesChanged(new TreeModelEvent(this, new TreePath(top), null, null));
+				if (terms == null) continue;
+				roots = terms;
+			}
+			else
+			{
+				children.put((GoTerm)parent, terms);
+			}
+			if (terms.isEmpty()) continue;
+			int[] indices = new int[terms.size()];
+			for (int i = 0; i < indices.length; ++i) indices[i] = i;
+			for (TreePath path : paths.get(parent))
+			{
+				fireTreeNodesInserted(new TreeModelEvent(this, path, indices, terms.toArray()));
+			}
+		}
+	}
+	
+	/**
+	 * return the text to show for the root or a term. For a model that loads in the background, 
+	 * the name that was read together with the term, which doesn't need the obo file. 
+	 */
+	public String getLabel (Object o)
+	{
+		if (o == top) return top.label;
+		GoTerm term = (GoTerm)o;
+		if (children == null) return term.getName();
+		String name = names.get(term);
+		return name == null ? term.getId() : name;
+	}
+	
+	/** return the children of a term that have been added so far */
+	private List<GoTerm> getChildren(GoTerm term)
+	{
+		if (children == null) return term.getChildren();
+		List<GoTerm> result = children.get(term);
+		return result == null ? Collections.<GoTerm>emptyList() : result;
+	}
+	
+	public void addTreeModelListener(TreeModelListener l) 
+	{
+		listeners.add(TreeModelListener.class, l);
+	}
+
+	public void removeTreeModelListener(TreeModelListener l) 
+	{
+		listeners.remove(TreeModelListener.class, l);
+	}
+	
+	private void fireTreeNodesChanged(TreeModelEvent e)
+	{
+		for (TreeModelListener l : listeners.getListeners(TreeModelListener.class))
+		{
+			l.treeNodesChanged(e);
+		}
+	}
+	
+	private void fireTreeNodesInserted(TreeModelEvent e)
+	{
+		for (TreeModelListener l : listeners.getListeners(TreeModelListener.class))
+		{
+			l.treeNodesInserted(e);
+		}
 	}
 
 	public Object getChild(Object o, int pos) 
@@ -53,7 +302,7 @@ public class GoTreeModel implements TreeModel
 		else
 		{
 			GoTerm term = (GoTerm)o;
-			return term.getChildren().get(pos);
+			return getChildren(term).get(pos);
 		}
 	}
 
@@ -66,7 +315,7 @@ public class GoTreeModel implements TreeModel
 		else
 		{
 			GoTerm term = (GoTerm)o;
-			return term.getChildren().size();
+			return getChildren(term).size();
 		}
 	}
 
@@ -79,7 +328,7 @@ public class GoTreeModel implements TreeModel
 		else
 		{
 			GoTerm term = (GoTerm)o;
-			return term.getChildren().indexOf(p);
+			return getChildren(term).indexOf(p);
 		}
 	}
 
@@ -96,21 +345,15 @@ public class GoTreeModel implements TreeModel
 		}
 		else
 		{
+			// known before the children are added
 			GoTerm term = (GoTerm)o;
-			return (term.getChildren().size() == 0);
+			return !term.hasChildren();
 		}
 	}
 
-	public void removeTreeModelListener(TreeModelListener arg0) 
-	{
-		// TODO Auto-generated method stub
-		
-	}
-
 	public void valueForPathChanged(TreePath arg0, Object arg1) 
 	{
-		// TODO Auto-generated method stub
-		
+		// the tree can't be edited
 	}
 
 }
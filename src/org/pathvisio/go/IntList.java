@@ -0,0 +1,76 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints, to avoid boxing while building large int arrays.
+ */
+final class IntList
+{
+	private int[] data;
+	private int size = 0;
+	
+	IntList()
+	{
+		this (16);
+	}
+	
+	IntList(int capacity)
+	{
+		data = new int[Math.max(capacity, 4)];
+	}
+	
+	void add(int value)
+	{
+		if (size == data.length) data = Arrays.copyOf(data, size * 2);
+		data[size++] = value;
+	}
+	
+	int get(int index)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("" + index);
+		return data[index];
+	}
+	
+	int size()
+	{
+		return size;
+	}
+	
+	/** return true if value occurs at or after position from */
+	boolean contains(int value, int from)
+	{
+		for (int i = from; i < size; ++i)
+		{
+			if (data[i] == value) return true;
+		}
+		return false;
+	}
+	
+	/** drop all values from position newSize onwards */
+	void truncate(int newSize)
+	{
+		size = Math.min(size, newSize);
+	}
+	
+	int[] toArray()
+	{
+		return Arrays.copyOf(data, size);
+	}
+}
@@ -0,0 +1,74 @@
+package org.pathvisio.obo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reusable CharSequence view on a range of bytes in a ByteBuffer.
+ * Bytes are mapped one-to-one onto chars, which is exact for the ASCII range.
+ * toString() decodes the range as UTF-8, so non-ASCII text comes out right there.
+ */
+final class ByteSlice implements CharSequence
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private final ByteBuffer buf;
+	private int start;
+	private int end;
+	private byte[] scratch = new byte[256];
+	
+	ByteSlice(ByteBuffer buf)
+	{
+		this.buf = buf;
+	}
+	
+	void set(int start, int end)
+	{
+		this.start = start;
+		this.end = end;
+	}
+	
+	public int length()
+	{
+		return end - start;
+	}
+	
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException("" + index);
+		return (char)(buf.get(start + index) & 0xFF);
+	}
+	
+	public CharSequence subSequence(int from, int to)
+	{
+		if (from < 0 || to > end - start || from > to) throw new IndexOutOfBoundsException(from + ", " + to);
+		ByteSlice result = new ByteSlice(buf);
+		result.set(start + from, start + to);
+		return result;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return decode(buf, start, end);
+	}
+	
+	/**
+	 * Decode a range of the given buffer as UTF-8, using the scratch array of this slice 
+	 * if the buffer is not backed by an array.
+	 */
+	String decode(ByteBuffer src, int from, int to)
+	{
+		int len = to - from;
+		if (src.hasArray())
+		{
+			return new String (src.array(), src.arrayOffset() + from, len, UTF8);
+		}
+		if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+		for (int i = 0; i < len; ++i)
+		{
+			scratch[i] = src.get(from + i);
+		}
+		return new String (scratch, 0, len, UTF8);
+	}
+}
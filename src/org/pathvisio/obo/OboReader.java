@@ -1,7 +1,13 @@
 package org.pathvisio.obo;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,6 +21,10 @@ public final class OboReader
 
 	private static Pattern pat = Pattern.compile ("([^:]+):\\s*(.*)");
 
+	/**
+	 * Parse obo data line by line from a Reader. 
+	 * Parsing a File or ByteBuffer directly is a lot faster, see {@link #parse(ByteBuffer, OboHandler)}.
+	 */
 	public static void parse (BufferedReader br, OboHandler handler) throws IOException
 	{
 		String line;
@@ -50,4 +60,161 @@ public final class OboReader
 			}
 		}
 	}	
+
+	/**
+	 * Parse an obo file, by memory-mapping it and passing it to {@link #parse(ByteBuffer, OboHandler)}.
+	 */
+	public static void parse (File obo, OboHandler handler) throws IOException
+	{
+		FileInputStream fis = new FileInputStream(obo);
+		try
+		{
+			FileChannel channel = fis.getChannel();
+			parse (channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), handler);
+		}
+		finally
+		{
+			fis.close();
+		}
+	}
+
+	/**
+	 * Parse UTF-8 encoded obo data from the position to the limit of a ByteBuffer.
+	 * Lines are scanned byte by byte without regular expressions and without creating 
+	 * a String per line. If the handler is an {@link OboSliceHandler}, property values 
+	 * are passed as a reusable CharSequence, otherwise they are converted to a String.
+	 * Property names are always interned. OboSliceHandlers also get the offset of each block
+	 * in the buffer.
+	 * <p>
+	 * Lines are handled exactly as in {@link #parse(BufferedReader, OboHandler)}.
+	 * The buffer position is not changed.
+	 */
+	public static void parse (ByteBuffer buf, OboHandler handler)
+	{
+		OboSliceHandler sliceHandler = (handler instanceof OboSliceHandler) ? (OboSliceHandler)handler : null;
+		ByteSlice value = new ByteSlice(buf);
+		OboTags tags = new OboTags();
+		
+		int pos = buf.position();
+		startBlock (handler, sliceHandler, "Main", pos);
+		
+		int limit = buf.limit();
+		while (pos < limit)
+		{
+			// find the end of the line, \n, \r and \r\n are all line terminators
+			int eol = pos;
+			byte b = 0;
+			while (eol < limit && (b = buf.get(eol)) != '\n' && b != '\r') eol++;
+			int next = eol + 1;
+			if (b == '\r' && next < limit && buf.get(next) == '\n') next++;
+			
+			if (eol == pos)
+			{
+				handler.endBlock();
+			}
+			else if (startsWith (buf, pos, eol, TERM))
+			{
+				startBlock (handler, sliceHandler, "Term", pos);
+			}
+			else if (startsWith (buf, pos, eol, TYPEDEF))
+			{
+				startBlock (handler, sliceHandler, "Typedef", pos);
+			}
+			else
+			{
+				int colon = pos;
+				while (colon < eol && buf.get(colon) != ':') colon++;
+				if (colon == pos || colon == eol)
+				{
+					throw new IllegalStateException("Cannot parse " + value.decode(buf, pos, eol));
+				}
+				String name = tags.get(buf, pos, colon);
+				
+				int start = colon + 1;
+				while (start < eol && isWhitespace(buf.get(start))) start++;
+				value.set(start, eol);
+				
+				if (sliceHandler != null)
+				{
+					sliceHandler.property(name, value);
+				}
+				else
+				{
+					handler.property(name, value.toString());
+				}
+			}
+			pos = next;
+		}
+	}
+	
+	/**
+	 * Split obo data into roughly equal chunks that can be parsed independently 
+	 * with {@link #parse(ByteBuffer, OboHandler)}. Chunks are split only at the start of
+	 * a line beginning with '[', i.e. at the start of a [Term] or [Typedef] stanza. The first 
+	 * chunk contains the header. 
+	 * <p>
+	 * The chunks share their content with the given buffer.
+	 * @param parts the number of chunks to aim for. Fewer chunks are returned if 
+	 * 	there are not enough stanzas.
+	 */
+	public static List<ByteBuffer> split (ByteBuffer buf, int parts)
+	{
+		List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+		int start = buf.position();
+		int limit = buf.limit();
+		for (int i = 1; i < parts && start < limit; ++i)
+		{
+			int pos = Math.max(start + 1, buf.position() + (int)((long)(limit - buf.position()) * i / parts));
+			while (pos < limit && !(buf.get(pos) == '[' && isLineEnd(buf.get(pos - 1)))) pos++;
+			if (pos >= limit) break;
+			result.add (slice(buf, start, pos));
+			start = pos;
+		}
+		result.add (slice(buf, start, limit));
+		return result;
+	}
+	
+	private static ByteBuffer slice (ByteBuffer buf, int start, int end)
+	{
+		ByteBuffer result = buf.duplicate();
+		result.limit(end);
+		result.position(start);
+		return result;
+	}
+	
+	private static boolean isLineEnd (byte b)
+	{
+		return b == '\n' || b == '\r';
+	}
+	
+	private static void startBlock (OboHandler handler, OboSliceHandler sliceHandler, String block, int offset)
+	{
+		if (sliceHandler != null)
+		{
+			sliceHandler.startBlock(block, offset);
+		}
+		else
+		{
+			handler.startBlock(block);
+		}
+	}
+	
+	private static final byte[] TERM = { '[', 'T', 'e', 'r', 'm', ']' };
+	private static final byte[] TYPEDEF = { '[', 'T', 'y', 'p', 'e', 'd', 'e', 'f', ']' };
+	
+	private static boolean startsWith (ByteBuffer buf, int start, int end, byte[] prefix)
+	{
+		if (end - start < prefix.length) return false;
+		for (int i = 0; i < prefix.length; ++i)
+		{
+			if (buf.get(start + i) != prefix[i]) return false;
+		}
+		return true;
+	}
+	
+	/** Same characters as \s in a regular expression, except for the line terminators */
+	private static boolean isWhitespace (byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+	}
 }
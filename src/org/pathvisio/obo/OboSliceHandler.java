@@ -0,0 +1,24 @@
+package org.pathvisio.obo;
+
+/**
+ * Extension of OboHandler for handlers that want to avoid creating a String for
+ * every property value. Used by the ByteBuffer based parser in OboReader.
+ */
+public interface OboSliceHandler extends OboHandler
+{
+	/**
+	 * Called at the beginning of each block, instead of {@link OboHandler#startBlock(String)}.
+	 * @param block one of "Term", "Typedef" or "Main"
+	 * @param offset position in the buffer of the first byte of the block header
+	 */
+	public void startBlock(String block, int offset);
+
+	/**
+	 * Called for each property in a block, instead of {@link OboHandler#property(String, String)}.
+	 * @param name the property, e.g. "id" or "is_a". Property names are interned, so they
+	 * 	may be compared with ==
+	 * @param value the value of the property. This CharSequence is reused for the next
+	 * 	property, so call toString() on it if the value needs to be kept. 
+	 */
+	public void property(String name, CharSequence value);
+}
@@ -0,0 +1,68 @@
+package org.pathvisio.obo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Small open addressing table for looking up property names without allocating. 
+ * The first time a property name is seen it is decoded and interned, after that the 
+ * same String instance is returned each time.
+ */
+final class OboTags
+{
+	private String[] table = new String[64];
+	private int size = 0;
+	
+	String get(ByteBuffer buf, int start, int end)
+	{
+		// same as String.hashCode() for ASCII property names
+		int hash = 0;
+		for (int i = start; i < end; ++i)
+		{
+			hash = 31 * hash + (buf.get(i) & 0xFF);
+		}
+		
+		int mask = table.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		String tag;
+		while ((tag = table[slot]) != null)
+		{
+			if (tag.hashCode() == hash && matches (tag, buf, start, end)) return tag;
+			slot = (slot + 1) & mask;
+		}
+		
+		StringBuilder builder = new StringBuilder(end - start);
+		for (int i = start; i < end; ++i)
+		{
+			builder.append ((char)(buf.get(i) & 0xFF));
+		}
+		tag = builder.toString().intern();
+		table[slot] = tag;
+		if (++size * 2 > table.length) rehash();
+		return tag;
+	}
+	
+	private static boolean matches(String tag, ByteBuffer buf, int start, int end)
+	{
+		if (tag.length() != end - start) return false;
+		for (int i = start; i < end; ++i)
+		{
+			if (tag.charAt(i - start) != (char)(buf.get(i) & 0xFF)) return false;
+		}
+		return true;
+	}
+	
+	private void rehash()
+	{
+		String[] old = table;
+		table = new String[old.length * 2];
+		int mask = table.length - 1;
+		for (String tag : old)
+		{
+			if (tag == null) continue;
+			int hash = tag.hashCode();
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (table[slot] != null) slot = (slot + 1) & mask;
+			table[slot] = tag;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Checks the operations of {@link GeneBitmap} against {@link BitSet}, on random sets 
+ * of different densities, so that both the sorted int form and the bitmap form are used, 
+ * and combined with each other.
+ * <p>
+ * No arguments. Exits with status 1 if any operation differs.
+ */
+public class GeneBitmapCheck
+{
+	private static final int ROUNDS = 20000;
+	
+	private static int failed = 0;
+	
+	public static void main (String[] args)
+	{
+		Random random = new Random(1);
+		for (int round = 0; round < ROUNDS; ++round)
+		{
+			BitSet a = randomSet (random);
+			BitSet b = randomSet (random);
+			GeneBitmap x = toBitmap (random, a);
+			GeneBitmap y = toBitmap (random, b);
+			
+			check ("set", a, x);
+			check ("contains", a, x);
+			
+			BitSet and = (BitSet)a.clone();
+			and.and(b);
+			check ("and", and, x.and(y));
+			if (x.andCardinality(y) != and.cardinality()) fail ("andCardinality", and, x.andCardinality(y));
+			
+			BitSet or = (BitSet)a.clone();
+			or.or(b);
+			check ("or", or, x.or(y));
+			
+			BitSet andNot = (BitSet)a.clone();
+			andNot.andNot(b);
+			check ("andNot", andNot, x.andNot(y));
+			
+			if (x.equals(y) != a.equals(b)) fail ("equals", a, x.equals(y));
+			GeneBitmap copy = toBitmap (random, a);
+			if (!x.equals(copy) || x.hashCode() != copy.hashCode()) fail ("equals copy", a, copy);
+		}
+		System.out.println (failed + " differences in " + ROUNDS + " rounds");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+	
+	/** a set with up to a few thousand genes, from almost empty to almost full */
+	private static BitSet randomSet (Random random)
+	{
+		BitSet result = new BitSet();
+		int range = 1 + random.nextInt(random.nextBoolean() ? 100 : 3000);
+		double density = random.nextInt(4) == 0 ? 0.0 : random.nextDouble();
+		density = density * density; // more sparse sets than dense ones
+		int offset = random.nextBoolean() ? 0 : random.nextInt(1000);
+		for (int g = 0; g < range; ++g)
+		{
+			if (random.nextDouble() < density) result.set(offset + g);
+		}
+		return result;
+	}
+	
+	/** make a GeneBitmap with the genes of the set, from sorted genes or from bitmap words */
+	private static GeneBitmap toBitmap (Random random, BitSet set)
+	{
+		if (random.nextBoolean())
+		{
+			int[] sorted = new int[set.cardinality() + 2];
+			int k = 1; // use from and to that are not the whole array
+			for (int g = set.nextSetBit(0); g >= 0; g = set.nextSetBit(g + 1)) sorted[k++] = g;
+			return GeneBitmap.fromSorted(sorted, 1, k);
+		}
+		long[] words = new long[(set.length() + 63) / 64 + random.nextInt(3)];
+		for (int g = set.nextSetBit(0); g >= 0; g = set.nextSetBit(g + 1)) words[g >>> 6] |= 1L << g;
+		return GeneBitmap.fromWords(words, words.length);
+	}
+	
+	private static void check (String operation, BitSet expected, GeneBitmap actual)
+	{
+		if (actual.cardinality() != expected.cardinality() || actual.isEmpty() != expected.isEmpty())
+		{
+			fail (operation + " cardinality", expected, actual);
+			return;
+		}
+		int[] members = new int[expected.cardinality()];
+		int k = 0;
+		for (int g = expected.nextSetBit(0); g >= 0; g = expected.nextSetBit(g + 1)) members[k++] = g;
+		if (!Arrays.equals(members, actual.toArray()))
+		{
+			fail (operation + " toArray", expected, actual);
+			return;
+		}
+		for (int g = -1; g <= expected.length() + 130; ++g)
+		{
+			if (actual.contains(g) != (g >= 0 && expected.get(g)))
+			{
+				fail (operation + " contains " + g, expected, actual);
+				return;
+			}
+			int next = g < 0 ? expected.nextSetBit(0) : expected.nextSetBit(g);
+			if (actual.next(g) != next)
+			{
+				fail (operation + " next " + g, expected, actual);
+				return;
+			}
+		}
+	}
+	
+	private static void fail (String operation, BitSet expected, Object actual)
+	{
+		if (failed < 20) System.out.println (operation + ": expected " + expected + " but got " + actual);
+		failed++;
+	}
+}
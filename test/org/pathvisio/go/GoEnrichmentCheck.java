@@ -0,0 +1,111 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Random;
+
+/**
+ * Checks the p-values of {@link GoEnrichment} against brute-force sums in exact
+ * arithmetic, for every background size N up to {@link #MAX_N}, every term size K,
+ * list size n and overlap k.
+ * <p>
+ * The brute-force p-value of the two-sided test is the sum of the probabilities of all
+ * overlaps that are at most (1 + 1e-7) times as likely as k, the same tolerance as R's fisher.test.
+ * <p>
+ * No arguments. Exits with status 1 if any p-value is off by more than a relative 1e-9.
+ */
+public class GoEnrichmentCheck
+{
+	static final int MAX_N = 40;
+	private static final double TOLERANCE = 1e-9;
+
+	public static void main (String[] args) throws Exception
+	{
+		// the p-values only need a background of at least MAX_N genes
+		GoGraph graph = RandomOntology.makeGraph(new Random(1), 1);
+		GoAnnotations annotations = RandomOntology.makeAnnotations(new Random(1), graph, MAX_N, 1);
+		GoEnrichment enrichment = new GoEnrichment(new GoPropagatedAnnotations(graph, annotations));
+
+		BigInteger[][] binomial = binomials (MAX_N);
+		int cases = 0;
+		int failed = 0;
+		for (int N = 1; N <= MAX_N; ++N)
+		{
+			for (int K = 0; K <= N; ++K)
+			{
+				for (int n = 0; n <= N; ++n)
+				{
+					int lo = Math.max(0, n + K - N);
+					int hi = Math.min(K, n);
+					for (int k = lo; k <= hi; ++k)
+					{
+						for (GoEnrichment.Test test : GoEnrichment.Test.values())
+						{
+							double expected = bruteForce (binomial, N, K, n, k, test);
+							double actual = enrichment.pValue(N, K, n, k, test);
+							cases++;
+							if (Math.abs(actual - expected) > TOLERANCE * expected)
+							{
+								if (failed < 20) System.out.println (test + " N=" + N + " K=" + K + " n=" + n + " k=" + k
+										+ ": expected " + expected + " but got " + actual);
+								failed++;
+							}
+						}
+					}
+				}
+			}
+		}
+		System.out.println (failed + " of " + cases + " p-values differ");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+
+	/** Pascal's triangle up to max */
+	private static BigInteger[][] binomials (int max)
+	{
+		BigInteger[][] result = new BigInteger[max + 1][];
+		for (int i = 0; i <= max; ++i)
+		{
+			result[i] = new BigInteger[i + 1];
+			result[i][0] = result[i][i] = BigInteger.ONE;
+			for (int j = 1; j < i; ++j) result[i][j] = result[i - 1][j - 1].add(result[i - 1][j]);
+		}
+		return result;
+	}
+
+	private static double bruteForce (BigInteger[][] binomial, int N, int K, int n, int k, GoEnrichment.Test test)
+	{
+		int lo = Math.max(0, n + K - N);
+		int hi = Math.min(K, n);
+		// the probability of overlap i is count(i) / C(N, n)
+		BigInteger observed = binomial[K][k].multiply(binomial[N - K][n - k]);
+		// count(i) <= (1 + 1e-7) count(k), multiplied by 1e7
+		BigInteger limit = observed.multiply(BigInteger.valueOf(10000001));
+		BigInteger sum = BigInteger.ZERO;
+		for (int i = lo; i <= hi; ++i)
+		{
+			BigInteger count = binomial[K][i].multiply(binomial[N - K][n - i]);
+			boolean include = test == GoEnrichment.Test.HYPERGEOMETRIC
+				? i >= k
+				: count.multiply(BigInteger.valueOf(10000000)).compareTo(limit) <= 0;
+			if (include) sum = sum.add(count);
+		}
+		return new BigDecimal(sum).divide(new BigDecimal(binomial[N][n]), MathContext.DECIMAL64).doubleValue();
+	}
+}
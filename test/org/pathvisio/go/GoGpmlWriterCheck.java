@@ -0,0 +1,175 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.IDMapper;
+import org.pathvisio.core.model.ObjectType;
+import org.pathvisio.core.model.Pathway;
+import org.pathvisio.core.model.PathwayElement;
+
+/**
+ * Checks that {@link GoGpmlWriter} writes the same pathway as {@link Pathway#writeToXml(File, boolean)}.
+ * <p>
+ * For each GO term, the pathway is made in memory and written with writeToXml, and it is also 
+ * streamed with {@link GoPathway#writeGoPathway(GoSubtreeRefs, GoSymbolCache, File, GoProgress)}. 
+ * Both files are read back, and their elements are compared. Group ids are random for 
+ * a Pathway, so groups are compared by the GO ids of the groups they are nested in.
+ * Both files are validated against the GPML schema as they are written.
+ * <p>
+ * Run it with the PathVisio core bundle and its libraries on the classpath, so that 
+ * both files are written by the real GPML converter.
+ * <p>
+ * Argument 1: obo file
+ * Argument 2: GO annotation file, see {@link GoAnnotationMapper}
+ * Argument 3 and on: GO IDs to check
+ */
+public class GoGpmlWriterCheck
+{
+	public static void main (String[] args) throws Exception
+	{
+		GoReader reader = GoRegistry.get(new File (args[0]));
+		GoAnnotationMapper.register();
+		IDMapper gdb = BridgeDb.connect (GoAnnotationMapper.PREFIX + ":" + new File (args[1]).getAbsolutePath());
+		GoSymbolCache symbols = new GoSymbolCache((AttributeMapper)gdb);
+		
+		int failed = 0;
+		for (int i = 2; i < args.length; ++i)
+		{
+			GoTerm term = reader.findTerm(args[i]);
+			if (term == null) throw new IllegalArgumentException("GO term " + args[i] + " not found");
+			GoSubtreeRefs refs = GoPathway.mapSubtree(reader, term, gdb, null);
+			
+			File expected = File.createTempFile("go-check-", ".gpml");
+			File streamed = File.createTempFile("go-check-", ".gpml");
+			try
+			{
+				Pathway p = new GoPathway().makeGoPathway(refs, symbols, null, Runtime.getRuntime().availableProcessors());
+				GoPathway.setMappInfo(p.getMappInfo(), term);
+				p.writeToXml(expected, true);
+				new GoPathway().writeGoPathway(refs, symbols, streamed, null);
+				
+				String difference = compare (read (expected), read (streamed));
+				if (difference == null)
+				{
+					System.out.println (term.getId() + ": same");
+				}
+				else
+				{
+					System.out.println (term.getId() + ": " + difference);
+					failed++;
+				}
+			}
+			finally
+			{
+				expected.delete();
+				streamed.delete();
+			}
+		}
+		System.exit(failed == 0 ? 0 : 1);
+	}
+	
+	private static Pathway read (File file) throws Exception
+	{
+		Pathway result = new Pathway();
+		result.readFromXml(file, true);
+		return result;
+	}
+	
+	/** return a description of the first difference, or null if the pathways are the same */
+	static String compare (Pathway expected, Pathway actual)
+	{
+		List<String> a = describe (expected);
+		List<String> b = describe (actual);
+		for (int i = 0; i < Math.max(a.size(), b.size()); ++i)
+		{
+			String x = i < a.size() ? a.get(i) : "(nothing)";
+			String y = i < b.size() ? b.get(i) : "(nothing)";
+			if (!x.equals(y)) return "expected " + x + " but streamed " + y;
+		}
+		return null;
+	}
+	
+	/** return a sorted description of the elements that GoPathway makes */
+	private static List<String> describe (Pathway pathway)
+	{
+		Map<String, PathwayElement> groups = new HashMap<String, PathwayElement>();
+		for (PathwayElement elt : pathway.getDataObjects())
+		{
+			if (elt.getObjectType() == ObjectType.GROUP) groups.put(elt.getGroupId(), elt);
+		}
+		
+		List<String> result = new ArrayList<String>();
+		for (PathwayElement elt : pathway.getDataObjects())
+		{
+			StringBuilder buf = new StringBuilder();
+			switch (elt.getObjectType())
+			{
+			case MAPPINFO:
+				buf.append("Pathway ").append(elt.getMapInfoName()).append(" ").append(elt.getMapInfoDataSource())
+					.append(" ").append(elt.getAuthor()).append(" ").append(elt.getEmail());
+				break;
+			case DATANODE:
+				buf.append("DataNode ").append(elt.getDataNodeType()).append(" ").append(elt.getDataSource())
+					.append(":").append(elt.getElementID());
+				appendGraphics (buf, elt);
+				break;
+			case LABEL:
+				buf.append("Label ").append(elt.getHref());
+				appendGraphics (buf, elt);
+				break;
+			case GROUP:
+				buf.append("Group ").append(elt.getGroupStyle()).append(" ").append(path (groups, elt.getGroupId()));
+				break;
+			default:
+				continue;
+			}
+			buf.append(" in ").append(path (groups, elt.getGroupRef()));
+			result.add (buf.toString());
+		}
+		Collections.sort(result);
+		return result;
+	}
+	
+	private static void appendGraphics (StringBuilder buf, PathwayElement elt)
+	{
+		buf.append(" \"").append(elt.getTextLabel()).append("\" at ").append(elt.getMCenterX()).append(",")
+			.append(elt.getMCenterY()).append(" size ").append(elt.getMWidth()).append("x").append(elt.getMHeight());
+	}
+	
+	/** return the GO ids of a group and the groups it is nested in */
+	private static String path (Map<String, PathwayElement> groups, String groupId)
+	{
+		StringBuilder result = new StringBuilder();
+		while (groupId != null)
+		{
+			PathwayElement group = groups.get(groupId);
+			if (group == null) return result.append("?").append(groupId).toString();
+			result.insert(0, "/" + group.getTextLabel());
+			groupId = group.getGroupRef();
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,214 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks {@link GoPermutationTest} on random ontologies.
+ * <p>
+ * For the same seed, the results must be the same on the calling thread and split 
+ * in 1, 3 or 16 parts. They must also be the same as a brute-force version, which draws the 
+ * same random lists, tests each of them against all terms with {@link GoEnrichment#test(GeneBitmap, GoEnrichment.Test)}, 
+ * and counts without skipping any term.
+ * <p>
+ * No arguments. Exits with status 1 if any p-value differs.
+ */
+public class GoPermutationTestCheck
+{
+	private static final int PERMUTATIONS = 300;
+	private static final double TOLERANCE = 1e-9;
+	private static final int[] PARTS = { 1, 3, 16 };
+	
+	public static void main (String[] args) throws Exception
+	{
+		int failed = 0;
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			for (int round = 0; round < 5; ++round)
+			{
+				Random random = new Random(round);
+				GoGraph graph = RandomOntology.makeGraph(random, 300 + random.nextInt(700));
+				GoAnnotations annotations = RandomOntology.makeAnnotations(random, graph, 200 + random.nextInt(800), 4);
+				GoEnrichment enrichment = new GoEnrichment(new GoPropagatedAnnotations(graph, annotations));
+				GoPermutationTest test = new GoPermutationTest(enrichment);
+				GeneBitmap list = makeList (random, enrichment);
+				long seed = random.nextLong();
+				
+				GoPermutationTest.Result expected = test.run(list, PERMUTATIONS, seed);
+				String name = "round " + round;
+				failed += compare (name + " brute force", expected, bruteForce (enrichment, list, seed));
+				for (int parts : PARTS)
+				{
+					failed += compare (name + " in " + parts + " parts", expected, test.run(list, PERMUTATIONS, seed, executor, parts));
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		System.out.println (failed + " differences");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+	
+	/** a list with genes of one term and some random genes, so that some p-values are small */
+	private static GeneBitmap makeList (Random random, GoEnrichment enrichment)
+	{
+		GeneBitmap background = enrichment.getBackground();
+		int[] genes = enrichment.getPropagated().getGenes(random.nextInt(enrichment.getPropagated().getGraph().size())).toArray();
+		int[] all = background.toArray();
+		int[] list = Arrays.copyOf(genes, Math.min(genes.length, 15) + 10);
+		for (int i = Math.min(genes.length, 15); i < list.length; ++i) list[i] = all[random.nextInt(all.length)];
+		Arrays.sort(list);
+		int unique = 0;
+		for (int i = 0; i < list.length; ++i)
+		{
+			if (unique == 0 || list[unique - 1] != list[i]) list[unique++] = list[i];
+		}
+		return GeneBitmap.fromSorted(list, 0, unique);
+	}
+	
+	/** return the empirical and family-wise p-values by row of the real result, counted without shortcuts */
+	private static double[][] bruteForce (GoEnrichment enrichment, GeneBitmap list, long seed)
+	{
+		GoEnrichment.Result real = enrichment.test(list, GoEnrichment.Test.HYPERGEOMETRIC);
+		int[] background = enrichment.getBackground().toArray();
+		int N = background.length;
+		int n = real.getList().cardinality();
+		int[] exceeded = new int[real.size()];
+		double[] minP = new double[PERMUTATIONS];
+		
+		for (int i = 0; i < PERMUTATIONS; ++i)
+		{
+			// the same draw as the permutation test, from a fresh pool
+			SplitMix random = new SplitMix();
+			random.seed(seed, i);
+			int[] pool = new int[N];
+			for (int j = 0; j < N; ++j) pool[j] = j;
+			int[] drawn = new int[n];
+			for (int j = 0; j < n; ++j)
+			{
+				int r = j + random.nextInt(N - j);
+				int position = pool[r]; pool[r] = pool[j]; pool[j] = position;
+				drawn[j] = background[position];
+			}
+			Arrays.sort(drawn);
+			GoEnrichment.Result permuted = enrichment.test(GeneBitmap.fromSorted(drawn, 0, n), GoEnrichment.Test.HYPERGEOMETRIC);
+			
+			int[] overlap = new int[enrichment.getPropagated().getGraph().size()];
+			minP[i] = 1.0;
+			for (int row = 0; row < permuted.size(); ++row)
+			{
+				overlap[permuted.getTermIndex(row)] = permuted.getOverlap(row);
+				minP[i] = Math.min(minP[i], permuted.getPValue(row));
+			}
+			for (int row = 0; row < real.size(); ++row)
+			{
+				int observed = real.getOverlap(row);
+				if (observed > 0 && overlap[real.getTermIndex(row)] >= observed) exceeded[row]++;
+			}
+		}
+		
+		double[][] result = new double[2][real.size()];
+		for (int row = 0; row < real.size(); ++row)
+		{
+			double p = real.getPValue(row);
+			if (p >= 1.0)
+			{
+				result[0][row] = result[1][row] = 1.0;
+				continue;
+			}
+			int count = 0;
+			for (double min : minP) if (min <= p * (1 + TOLERANCE)) count++;
+			result[0][row] = (1.0 + exceeded[row]) / (1.0 + PERMUTATIONS);
+			result[1][row] = (1.0 + count) / (1.0 + PERMUTATIONS);
+		}
+		return result;
+	}
+	
+	private static int compare (String name, GoPermutationTest.Result expected, GoPermutationTest.Result actual)
+	{
+		double[][] values = new double[2][actual.size()];
+		for (int row = 0; row < actual.size(); ++row)
+		{
+			if (actual.getReal().getTermIndex(row) != expected.getReal().getTermIndex(row))
+			{
+				System.out.println (name + ": rows are in a different order");
+				return 1;
+			}
+			values[0][row] = actual.getEmpiricalPValue(row);
+			values[1][row] = actual.getFamilyWisePValue(row);
+		}
+		return compare (name, expected, values);
+	}
+	
+	private static int compare (String name, GoPermutationTest.Result expected, double[][] actual)
+	{
+		int failed = 0;
+		for (int row = 0; row < expected.size(); ++row)
+		{
+			if (expected.getEmpiricalPValue(row) != actual[0][row] || expected.getFamilyWisePValue(row) != actual[1][row])
+			{
+				if (failed < 5) System.out.println (name + ", " + expected.getReal().getTerm(row).getId() + ": expected " 
+						+ expected.getEmpiricalPValue(row) + ", " + expected.getFamilyWisePValue(row) 
+						+ " but got " + actual[0][row] + ", " + actual[1][row]);
+				failed++;
+			}
+		}
+		return failed;
+	}
+	
+	/** a copy of the generator of GoPermutationTest, to draw the same lists */
+	private static final class SplitMix
+	{
+		private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+		private long state;
+		
+		void seed (long seed, int index)
+		{
+			state = mix(seed + (index + 1) * GOLDEN_GAMMA);
+		}
+		
+		long nextLong ()
+		{
+			return mix(state += GOLDEN_GAMMA);
+		}
+		
+		int nextInt (int bound)
+		{
+			int bits, value;
+			do
+			{
+				bits = (int)(nextLong() >>> 33);
+				value = bits % bound;
+			} while (bits - value + (bound - 1) < 0);
+			return value;
+		}
+		
+		private static long mix (long z)
+		{
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			return z ^ (z >>> 31);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Checks {@link GoPropagatedAnnotations} against a brute-force union of the direct genes 
+ * of each term and all terms below it, found by walking the children of a random graph.
+ * <p>
+ * No arguments. Exits with status 1 if the genes of any term differ.
+ */
+public class GoPropagatedAnnotationsCheck
+{
+	public static void main (String[] args) throws Exception
+	{
+		int failed = 0;
+		int terms = 0;
+		for (int round = 0; round < 5; ++round)
+		{
+			Random random = new Random(round);
+			GoGraph graph = RandomOntology.makeGraph(random, 200 + random.nextInt(2000));
+			// round 0 has few genes, so that most sets are stored as sorted ints
+			GoAnnotations annotations = RandomOntology.makeAnnotations(random, graph, round == 0 ? 50 : 2000, 5);
+			GoPropagatedAnnotations propagated = new GoPropagatedAnnotations(graph, annotations);
+			
+			for (int term = 0; term < graph.size(); ++term)
+			{
+				BitSet direct = new BitSet();
+				BitSet expected = new BitSet();
+				boolean[] seen = new boolean[graph.size()];
+				collect (graph, annotations, term, direct);
+				below (graph, annotations, term, seen, expected);
+				terms++;
+				if (!same (expected, propagated.getGenes(term)) || !same (direct, propagated.getDirectGenes(term)))
+				{
+					if (failed < 20) System.out.println ("term " + graph.getTerm(term).getId() + ": expected " + expected 
+							+ " but got " + propagated.getGenes(term));
+					failed++;
+				}
+			}
+		}
+		System.out.println (failed + " of " + terms + " terms differ");
+		System.exit(failed == 0 ? 0 : 1);
+	}
+	
+	/** add the genes of the term and every term below it, by depth-first search */
+	private static void below (GoGraph graph, GoAnnotations annotations, int term, boolean[] seen, BitSet genes)
+	{
+		if (seen[term]) return;
+		seen[term] = true;
+		collect (graph, annotations, term, genes);
+		for (int k = 0; k < graph.getChildCount(term); ++k) below (graph, annotations, graph.getChild(term, k), seen, genes);
+	}
+	
+	/** add the genes annotated with the term itself */
+	private static void collect (GoGraph graph, GoAnnotations annotations, int term, BitSet genes)
+	{
+		int t = annotations.indexOfTerm(graph.getAccession(term));
+		if (t < 0) return;
+		for (int k = 0; k < annotations.getGeneCount(t); ++k) genes.set(annotations.getGene(t, k));
+	}
+	
+	private static boolean same (BitSet expected, GeneBitmap actual)
+	{
+		if (expected.cardinality() != actual.cardinality()) return false;
+		for (int g = expected.nextSetBit(0); g >= 0; g = expected.nextSetBit(g + 1))
+		{
+			if (!actual.contains(g)) return false;
+		}
+		return true;
+	}
+}
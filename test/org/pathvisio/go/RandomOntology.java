@@ -0,0 +1,88 @@
+// PathVisio,
+// a tool for data visualization and analysis using Biological Pathways
+// Copyright 2006-2009 BiGCaT Bioinformatics
+//
+// Licensed under the Apache License, Version 2.0 (the "License"); 
+// you may not use this file except in compliance with the License. 
+// You may obtain a copy of the License at 
+// 
+// http://www.apache.org/licenses/LICENSE-2.0 
+//  
+// Unless required by applicable law or agreed to in writing, software 
+// distributed under the License is distributed on an "AS IS" BASIS, 
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+// See the License for the specific language governing permissions and 
+// limitations under the License.
+//
+package org.pathvisio.go;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Random ontologies and annotations for the checks in this directory,
+ * so that they don't need a GO release or annotation file.
+ */
+class RandomOntology
+{
+	private RandomOntology() {} // not meant for instantiation.
+
+	/**
+	 * Make a random is_a graph. Term 0 is the root, every other term has one to three
+	 * parents among the terms before it, so that many terms can be reached by more than one path.
+	 */
+	static GoGraph makeGraph (Random random, int size) throws IOException
+	{
+		File obo = File.createTempFile("go-check-", ".obo");
+		try
+		{
+			Writer out = new OutputStreamWriter(new FileOutputStream(obo), "UTF-8");
+			try
+			{
+				out.write ("format-version: 1.2\n\n");
+				for (int i = 0; i < size; ++i)
+				{
+					out.write ("[Term]\nid: " + GoGraph.formatId(i + 1) + "\nname: term " + i + "\nnamespace: biological_process\n");
+					int parents = i == 0 ? 0 : 1 + random.nextInt(3);
+					for (int k = 0; k < parents; ++k)
+					{
+						out.write ("is_a: " + GoGraph.formatId(random.nextInt(i) + 1) + "\n");
+					}
+					out.write ("\n");
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			// lazy, so that no snapshot is written next to the temporary file
+			return GoReader.read(obo, 1, true).getGraph();
+		}
+		finally
+		{
+			obo.delete();
+		}
+	}
+
+	/**
+	 * Annotate each of the given number of genes with up to perGene random terms of the graph.
+	 * Genes are named "gene0", "gene1" and so on, and are numbered in that order.
+	 */
+	static GoAnnotations makeAnnotations (Random random, GoGraph graph, int genes, int perGene)
+	{
+		GoAnnotations.Builder builder = new GoAnnotations.Builder();
+		for (int g = 0; g < genes; ++g)
+		{
+			int count = 1 + random.nextInt(perGene);
+			for (int k = 0; k < count; ++k)
+			{
+				builder.add ("gene" + g, graph.getAccession(random.nextInt(graph.size())));
+			}
+		}
+		return builder.build();
+	}
+}
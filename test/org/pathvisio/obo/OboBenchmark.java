@@ -0,0 +1,113 @@
+package org.pathvisio.obo;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Compares the speed of the different OboReader parse methods.
+ * <p>
+ * Argument 1: obo file, e.g. gene_ontology.obo
+ * Argument 2 (optional): number of timed iterations, default 10
+ * <p>
+ * Each method is run a few times untimed first to warm up the JIT.
+ */
+public final class OboBenchmark
+{
+	private OboBenchmark() {} // not meant for instantiation.
+
+	/**
+	 * Handler that only counts what it sees, so that the benchmark 
+	 * measures the parser and not the handler.
+	 */
+	private static class CountingHandler implements OboSliceHandler
+	{
+		int blocks = 0;
+		int properties = 0;
+		long chars = 0;
+		
+		public void startBlock(String block) { blocks++; }
+		public void startBlock(String block, int offset) { blocks++; }
+		public void endBlock() { }
+		
+		public void property(String name, String value) 
+		{ 
+			properties++;
+			chars += value.length();
+		}
+		
+		public void property(String name, CharSequence value) 
+		{
+			properties++;
+			chars += value.length();
+		}
+	}
+	
+	/** Hides the OboSliceHandler interface, so that the parser has to create value Strings */
+	private static class StringHandler implements OboHandler
+	{
+		private final CountingHandler parent;
+		StringHandler(CountingHandler parent) { this.parent = parent; }
+		public void startBlock(String block) { parent.startBlock(block); }
+		public void endBlock() { parent.endBlock(); }
+		public void property(String name, String value) { parent.property(name, value); }
+	}
+
+	private static abstract class Method
+	{
+		final String name;
+		Method(String name) { this.name = name; }
+		abstract void parse (File obo, CountingHandler handler) throws IOException;
+	}
+	
+	private static final Method[] METHODS = new Method[] {
+		new Method("BufferedReader + regex") {
+			void parse (File obo, CountingHandler handler) throws IOException
+			{
+				BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(obo), "UTF-8"));
+				try { OboReader.parse(br, handler); } finally { br.close(); }
+			}
+		},
+		new Method("ByteBuffer, String values") {
+			void parse (File obo, CountingHandler handler) throws IOException
+			{
+				OboReader.parse(obo, new StringHandler(handler));
+			}
+		},
+		new Method("ByteBuffer, CharSequence values") {
+			void parse (File obo, CountingHandler handler) throws IOException
+			{
+				OboReader.parse(obo, handler);
+			}
+		},
+	};
+	
+	public static void main(String[] args) throws IOException
+	{
+		File obo = new File(args[0]);
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		double mb = obo.length() / (1024.0 * 1024.0);
+		
+		for (Method method : METHODS)
+		{
+			CountingHandler handler = null;
+			for (int i = 0; i < 3; ++i)
+			{
+				handler = new CountingHandler();
+				method.parse(obo, handler);
+			}
+			
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; ++i)
+			{
+				method.parse(obo, new CountingHandler());
+			}
+			double ms = (System.nanoTime() - start) / 1e6 / iterations;
+			
+			System.out.println (String.format("%-35s %8.1f ms %8.1f MB/s  (%d blocks, %d properties, %d chars)",
+					method.name, ms, mb / (ms / 1000.0), handler.blocks, handler.properties, handler.chars));
+		}
+	}
+}